@@ -0,0 +1,106 @@
+package jgibblda;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that the alias sampler converges like the dense sampler: both
+ * estimate niters iterations on the same synthetic corpus (see
+ * CorpusGenerator) from the same seed, and their final joint
+ * log-likelihood and recovery error of the true topics are compared. The
+ * program exits with status 1 if the log-likelihood of the alias sampler is
+ * lower by more than the relative tolerance (default: 0.01), or its
+ * recovery error higher by more than the same amount. The alias sampler
+ * mixes more slowly per iteration, so niters should be large enough for
+ * both samplers to converge.
+ *
+ *   java -cp bin:lib/* jgibblda.AliasConvergenceCheck 2000 5000 50 200
+ *
+ * Arguments: [M [V [K [niters [tolerance]]]]]
+ */
+public class AliasConvergenceCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        int M = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int V = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int K = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int niters = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        double tolerance = args.length > 4 ? Double.parseDouble(args[4]) : 0.01;
+
+        File dir = File.createTempFile("jgibblda-alias", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            CorpusGenerator generator = new CorpusGenerator();
+            generator.M = M;
+            generator.V = V;
+            generator.K = K;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new FileOutputStream(new File(dir, "train.gz"))), "UTF-8"));
+            try {
+                generator.generate(writer, null);
+            } finally {
+                writer.close();
+            }
+            System.out.format("%d documents, %d tokens, V=%d, K=%d, %d iterations%n",
+                    M, generator.ntokens, V, K, niters);
+
+            double[] dense = estimate(dir, "dense", K, niters, generator);
+            double[] alias = estimate(dir, "alias", K, niters, generator);
+
+            double llChange = (alias[0] - dense[0]) / Math.abs(dense[0]);
+            double recoveryChange = alias[1] - dense[1];
+            System.out.format("log-likelihood: alias %+.4f%% of dense, recovery error: alias %+.4f%n",
+                    100 * llChange, recoveryChange);
+            if (llChange < -tolerance || recoveryChange > tolerance) {
+                System.out.println("FAILED: the alias sampler did not converge like the dense sampler");
+                System.exit(1);
+            }
+            System.out.println("OK");
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Estimate niters iterations with the given sampler; returns the final
+     * log-likelihood and recovery error
+     */
+    static double[] estimate(File dir, String sampler, int K, int niters, CorpusGenerator generator)
+        throws Exception
+    {
+        LDACmdOption option = new LDACmdOption();
+        option.dir = dir.getPath();
+        option.dfile = "train.gz";
+        option.modelName = "model";
+        option.K = K;
+        option.sampler = sampler;
+        option.seed = 1;
+        option.twords = 0;
+
+        Model model = new Model(option);
+        model.init(true);
+        Sampler s = Sampler.create(sampler, model, model.nw, model.nwsum, Rng.create(model.rngName, model.seed, 1));
+        long start = System.nanoTime();
+        for (int iter = 1; iter <= niters; iter++) {
+            for (int m = 0; m < model.M; m++) {
+                s.sampleDocument(m);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        model.liter = niters;
+
+        double ll = model.logLikelihood();
+        double recovery = generator.recoveryError(model);
+        System.out.format("%-6s log-likelihood %.6e, recovery error %.4f (%.2fs)%n", sampler, ll, recovery, seconds);
+        return new double[] { ll, recovery };
+    }
+}
@@ -0,0 +1,345 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs the main code paths on a synthetic corpus and writes one JSON record
+ * per measurement to a file, so that runs can be compared:
+ *
+ *   sampling.<sampler>  tokens/s of a Gibbs sweep (median over iterations)
+ *   recovery.<sampler>  mean Hellinger distance of the topics after niters
+ *                       iterations to the true topics (see CorpusGenerator)
+ *   inference.cli       tokens/s of Inferencer (-inf) on held-out documents
+ *   inference.<mode>    ms per held-out document with InferenceEngine
+ *   evaluation.<method> held-out documents/s of PerplexityEvaluator
+ *   load.text           MB/s of text read by LDADataset.readDataSet()
+ *   load.binary         ms to open the binary dataset
+ *   save.tassign        ms to save the topic assignments as text
+ *   save.checkpoint     ms to save a binary checkpoint
+ *   load.checkpoint     ms to load the binary checkpoint
+ *
+ * The corpus is sampled by CorpusGenerator: M documents of about 100
+ * tokens over V words and K topics, with labelsPerDoc labels per document
+ * (unlabeled if 0), and M / 10 held-out documents of the same topics. With a baseline file from an earlier
+ * run, every measurement is compared to it and the program exits with
+ * status 1 if one is worse by more than the tolerance (default: 0.1).
+ *
+ *   java -cp bin:lib/* jgibblda.BenchmarkSuite results.jsonl 2000 10000 100 0 20 baseline.jsonl
+ *
+ * Arguments: out [M [V [K [labelsPerDoc [niters [baseline [tolerance]]]]]]]
+ */
+public class BenchmarkSuite
+{
+    static final int REPS = 5;
+
+    static class Result
+    {
+        final String name;
+        final double value;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Result(String name, double value, String unit, boolean higherIsBetter)
+        {
+            this.name = name;
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    int M, V, K, labelsPerDoc, niters;
+    File dir;
+    CorpusGenerator generator;
+    List<Result> results = new ArrayList<Result>();
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 0) {
+            System.out.println("BenchmarkSuite out [M [V [K [labelsPerDoc [niters [baseline [tolerance]]]]]]]");
+            return;
+        }
+        BenchmarkSuite suite = new BenchmarkSuite();
+        suite.M = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        suite.V = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        suite.K = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        suite.labelsPerDoc = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        suite.niters = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+        String baseline = args.length > 6 ? args[6] : null;
+        double tolerance = args.length > 7 ? Double.parseDouble(args[7]) : 0.1;
+
+        suite.dir = File.createTempFile("jgibblda-bench", "");
+        suite.dir.delete();
+        suite.dir.mkdir();
+        try {
+            suite.run();
+        } finally {
+            for (File file : suite.dir.listFiles()) {
+                file.delete();
+            }
+            suite.dir.delete();
+        }
+
+        suite.write(args[0]);
+        if (baseline != null && suite.compare(baseline, tolerance) > 0) {
+            System.exit(1);
+        }
+    }
+
+    void run() throws Exception
+    {
+        generator = new CorpusGenerator();
+        generator.V = V;
+        generator.K = K;
+        generator.labelsPerDoc = labelsPerDoc;
+        generator.init();
+        generate(new File(dir, "train.gz"), M, 1);
+        long textBytes = generator.nchars;
+        generate(new File(dir, "test.gz"), Math.max(1, M / 10), 2);
+
+        // loading
+        double[] times = new double[REPS];
+        for (int r = 0; r < REPS; r++) {
+            long start = System.nanoTime();
+            new LDADataset().readDataSet(new File(dir, "train.gz").getPath(), false);
+            times[r] = (System.nanoTime() - start) / 1e9;
+        }
+        add("load.text", textBytes / 1e6 / median(times), "MB/s", true);
+
+        LDADataset data = new LDADataset();
+        data.readDataSet(new File(dir, "train.gz").getPath(), false);
+        data.writeBinaryDataSet(new File(dir, "train.bin").getPath());
+        for (int r = 0; r < REPS; r++) {
+            long start = System.nanoTime();
+            new LDADataset().readDataSet(new File(dir, "train.bin").getPath(), false);
+            times[r] = (System.nanoTime() - start) / 1e6;
+        }
+        add("load.binary", median(times), "ms", false);
+
+        // sampling, with the model of the dense sampler kept for the rest
+        List<String> samplers = new ArrayList<String>(Arrays.asList("dense", "sparse", "alias"));
+        if (labelsPerDoc > 0) {
+            samplers.add("labeled");
+        }
+        Model model = null;
+        for (String sampler : samplers) {
+            Model m = sample(sampler);
+            if (model == null) {
+                model = m;
+            }
+        }
+
+        // saving and loading the model
+        File ckpt = new File(dir, "model" + Model.checkpointSuffix);
+        for (int r = 0; r < REPS; r++) {
+            long start = System.nanoTime();
+            model.saveModelTAssign(new File(dir, "model" + Model.tassignSuffix).getPath());
+            times[r] = (System.nanoTime() - start) / 1e6;
+        }
+        add("save.tassign", median(times), "ms", false);
+        for (int r = 0; r < REPS; r++) {
+            long start = System.nanoTime();
+            model.saveModelCheckpoint(ckpt.getPath());
+            times[r] = (System.nanoTime() - start) / 1e6;
+        }
+        add("save.checkpoint", median(times), "ms", false);
+        model.saveModelOthers(new File(dir, "model" + Model.othersSuffix).getPath());
+        model.data.localDict.writeWordMap(new File(dir, "model" + Model.wordMapSuffix).getPath());
+        for (int r = 0; r < REPS; r++) {
+            long start = System.nanoTime();
+            Model loaded = new Model(option("", "dense"));
+            loaded.init(false);
+            times[r] = (System.nanoTime() - start) / 1e6;
+        }
+        add("load.checkpoint", median(times), "ms", false);
+
+        // inference
+        LDACmdOption option = option("test.gz", "dense");
+        option.niters = niters;
+        option.nburnin = niters / 2;
+        Inferencer inferencer = new Inferencer(option);
+        long start = System.nanoTime();
+        Model newModel = inferencer.inference();
+        add("inference.cli", (double) newModel.data.numTokens() * niters / ((System.nanoTime() - start) / 1e9),
+                "tokens/s", true);
+
+        List<String> docs = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(new File(dir, "test.gz"))), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            docs.add(line);
+        }
+        reader.close();
+        InferenceEngine engine = InferenceEngine.load(option("", "dense"));
+        for (String mode : new String[] { "gibbs", "phi", "em" }) {
+            engine.setMode(mode);
+            for (int r = 0; r < REPS; r++) {
+                start = System.nanoTime();
+                for (String doc : docs) {
+                    engine.infer(doc);
+                }
+                times[r] = (System.nanoTime() - start) / 1e6 / docs.size();
+            }
+            add("inference." + mode, median(times), "ms/doc", false);
+        }
+
+        // held-out perplexity
+        engine.setMode("gibbs");
+        engine.niters = niters;
+        engine.nburnin = niters / 2;
+        for (String method : new String[] { "completion", "lefttoright" }) {
+            for (int r = 0; r < REPS; r++) {
+                PerplexityEvaluator evaluator = new PerplexityEvaluator(engine);
+                evaluator.method = method;
+                evaluator.nparticles = 5;
+                start = System.nanoTime();
+                evaluator.evaluate(new File(dir, "test.gz").getPath());
+                times[r] = evaluator.ndocs / ((System.nanoTime() - start) / 1e9);
+            }
+            add("evaluation." + method, median(times), "docs/s", true);
+        }
+    }
+
+    /**
+     * Estimate a model with the given sampler for niters iterations after
+     * 3 warm-up iterations
+     */
+    Model sample(String sampler) throws Exception
+    {
+        Model model = new Model(option("train.gz", sampler));
+        model.init(true);
+        Sampler s = Sampler.create(sampler, model, model.nw, model.nwsum, Rng.create(model.rngName, model.seed, 1));
+        double ntokens = model.data.numTokens();
+        double[] rates = new double[niters];
+        for (int iter = -3; iter < niters; iter++) {
+            long start = System.nanoTime();
+            for (int m = 0; m < model.M; m++) {
+                s.sampleDocument(m);
+            }
+            if (iter >= 0) {
+                rates[iter] = ntokens / ((System.nanoTime() - start) / 1e9);
+            }
+        }
+        model.liter = niters + 3;
+        add("sampling." + sampler, median(rates), "tokens/s", true);
+        add("recovery." + sampler, generator.recoveryError(model), "hellinger", false);
+        return model;
+    }
+
+    LDACmdOption option(String dfile, String sampler)
+    {
+        LDACmdOption option = new LDACmdOption();
+        option.dir = dir.getPath();
+        option.dfile = dfile;
+        option.modelName = "model";
+        option.K = K;
+        option.sampler = sampler;
+        option.seed = 1;
+        option.twords = 0;
+        return option;
+    }
+
+    /**
+     * Write M documents of the synthetic corpus to file, from the given
+     * stream of the seed
+     */
+    void generate(File file, int M, int stream) throws Exception
+    {
+        generator.M = M;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(file)), "UTF-8"));
+        try {
+            generator.generate(writer, null, Rng.create(generator.rngName, generator.seed, stream));
+        } finally {
+            writer.close();
+        }
+    }
+
+    void add(String name, double value, String unit, boolean higherIsBetter)
+    {
+        results.add(new Result(name, value, unit, higherIsBetter));
+    }
+
+    String params()
+    {
+        return String.format(Locale.ROOT, "\"M\":%d,\"V\":%d,\"K\":%d,\"labelsPerDoc\":%d,\"niters\":%d", M, V, K, labelsPerDoc, niters);
+    }
+
+    void write(String filename) throws Exception
+    {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF-8"));
+        System.out.format("%n%-20s %14s  %s%n", "benchmark", "value", "unit");
+        for (Result result : results) {
+            out.format(Locale.ROOT, "{\"benchmark\":\"%s\",\"value\":%.6g,\"unit\":\"%s\",\"better\":\"%s\",%s}%n",
+                    result.name, result.value, result.unit, result.higherIsBetter ? "higher" : "lower", params());
+            System.out.format("%-20s %14.4f  %s%n", result.name, result.value, result.unit);
+        }
+        out.close();
+        System.out.println("Results written to " + filename);
+    }
+
+    /**
+     * Compare the results to the records of a baseline file with the same
+     * parameters; returns the number of regressions
+     */
+    int compare(String baseline, double tolerance) throws Exception
+    {
+        Pattern name = Pattern.compile("\"benchmark\":\"([^\"]*)\"");
+        Pattern value = Pattern.compile("\"value\":([-+0-9.eE]+)");
+        Map<String, Double> base = new HashMap<String, Double>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(baseline), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher n = name.matcher(line);
+            Matcher v = value.matcher(line);
+            if (n.find() && v.find() && line.contains(params())) {
+                base.put(n.group(1), Double.parseDouble(v.group(1)));
+            }
+        }
+        reader.close();
+
+        int regressions = 0;
+        System.out.format("%n%-20s %14s %14s %8s%n", "benchmark", "baseline", "value", "change");
+        for (Result result : results) {
+            Double b = base.get(result.name);
+            if (b == null) {
+                System.out.format("%-20s %14s %14.4f%n", result.name, "-", result.value);
+                continue;
+            }
+            // > 0 is an improvement
+            double change = result.higherIsBetter ? result.value / b - 1 : b / result.value - 1;
+            boolean regression = change < -tolerance;
+            regressions += regression ? 1 : 0;
+            System.out.format("%-20s %14.4f %14.4f %+7.1f%%%s%n", result.name, b, result.value, 100 * change,
+                    regression ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    static double median(double[] values)
+    {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+}
@@ -0,0 +1,122 @@
+package jgibblda;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the word-topic count layouts (see WordTopicCounts) on a dense
+ * Gibbs sweep over a synthetic Zipfian token stream. Reports sampling
+ * throughput and the heap used by the counts.
+ *
+ * Run one layout per JVM, so that the JIT sees a single implementation:
+ *
+ *   for l in jagged flat packed; do
+ *       java -Xmx4g -cp bin:lib/* jgibblda.CountLayoutBenchmark $l 500000 500
+ *   done
+ *
+ * Arguments: layout [V [K [ntokens [align [niters]]]]]
+ */
+public class CountLayoutBenchmark
+{
+    public static void main(String[] args)
+    {
+        if (args.length == 0) {
+            System.out.println("CountLayoutBenchmark layout [V [K [ntokens [align [niters]]]]]");
+            return;
+        }
+        String layout = args[0];
+        int V = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+        int K = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int ntokens = args.length > 3 ? Integer.parseInt(args[3]) : 2000000;
+        int align = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int niters = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+
+        Random rnd = new Random(1);
+        int[] words = zipfTokens(V, ntokens, rnd);
+        int[] freq = new int[V];
+        for (int w : words) {
+            freq[w]++;
+        }
+
+        long before = usedHeap();
+        WordTopicCounts nw = WordTopicCounts.create(layout, V, K, align, freq);
+        long heap = usedHeap() - before;
+
+        int[] nwsum = new int[K];
+        int[] z = new int[ntokens];
+        for (int i = 0; i < ntokens; i++) {
+            z[i] = rnd.nextInt(K);
+            nw.increment(words[i], z[i]);
+            nwsum[z[i]]++;
+        }
+
+        // warm up, then time the remaining sweeps
+        double[] p = new double[K];
+        sweep(nw, nwsum, words, z, p, rnd);
+        long start = System.nanoTime();
+        for (int iter = 0; iter < niters; iter++) {
+            sweep(nw, nwsum, words, z, p, rnd);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.format("layout=%s V=%d K=%d align=%d tokens/s=%.0f heapMB=%.1f estimatedMB=%.1f%n",
+                layout, V, K, align, (double)ntokens * niters / seconds,
+                heap / 1048576.0, nw.sizeInBytes() / 1048576.0);
+    }
+
+    /**
+     * One dense collapsed Gibbs sweep (as in GibbsSampler) over all tokens
+     */
+    private static void sweep(WordTopicCounts nw, int[] nwsum, int[] words, int[] z,
+            double[] p, Random rnd)
+    {
+        int K = nwsum.length;
+        double beta = 0.01, Vbeta = nw.getV() * beta;
+        for (int i = 0; i < words.length; i++) {
+            int w = words[i];
+            int topic = z[i];
+            nw.decrement(w, topic);
+            nwsum[topic]--;
+
+            for (int k = 0; k < K; k++) {
+                p[k] = (nw.get(w, k) + beta) / (nwsum[k] + Vbeta);
+                if (k > 0) p[k] += p[k - 1];
+            }
+            double u = rnd.nextDouble() * p[K - 1];
+            for (topic = 0; topic < K - 1; topic++) {
+                if (p[topic] > u)
+                    break;
+            }
+
+            nw.increment(w, topic);
+            nwsum[topic]++;
+            z[i] = topic;
+        }
+    }
+
+    private static int[] zipfTokens(int V, int ntokens, Random rnd)
+    {
+        double[] cdf = new double[V];
+        double sum = 0;
+        for (int w = 0; w < V; w++) {
+            sum += 1.0 / (w + 1);
+            cdf[w] = sum;
+        }
+
+        int[] words = new int[ntokens];
+        for (int i = 0; i < ntokens; i++) {
+            int w = Arrays.binarySearch(cdf, rnd.nextDouble() * sum);
+            words[i] = Math.min(V - 1, w < 0 ? -w - 1 : w);
+        }
+        return words;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,90 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compares the inference modes of InferenceEngine (gibbs, phi and em) on
+ * the documents of a data file: latency per document and the mean L1
+ * distance of theta to a reference obtained with long Gibbs runs (the
+ * default mode with refIters iterations).
+ *
+ *   java -cp bin:lib/* jgibblda.InferenceModeBenchmark models/casestudy model-final newdocs.gz 50 1000
+ *
+ * Arguments: dir model dfile [niters [refIters [ndocs]]]
+ */
+public class InferenceModeBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 3) {
+            System.out.println("InferenceModeBenchmark dir model dfile [niters [refIters [ndocs]]]");
+            return;
+        }
+        LDACmdOption option = new LDACmdOption();
+        option.dir = args[0];
+        option.modelName = args[1];
+        String dfile = args[2];
+        int niters = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int refIters = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        int ndocs = args.length > 5 ? Integer.parseInt(args[5]) : Integer.MAX_VALUE;
+        option.seed = 1;
+
+        List<String> docs = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(option.dir + "/" + dfile)), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null && docs.size() < ndocs) {
+            docs.add(line);
+        }
+        reader.close();
+
+        InferenceEngine engine = InferenceEngine.load(option);
+        int K = engine.getK();
+
+        // reference theta
+        engine.niters = refIters;
+        engine.nburnin = refIters / 5;
+        engine.samplingLag = 1;
+        double[][] reference = new double[docs.size()][];
+        for (int d = 0; d < docs.size(); d++) {
+            reference[d] = engine.infer(docs.get(d));
+        }
+
+        engine.niters = niters;
+        engine.nburnin = niters * 2 / 5;
+        engine.samplingLag = 1;
+        System.out.format("%d documents, K=%d, %d iterations (reference: gibbs, %d iterations)%n",
+                docs.size(), K, niters, refIters);
+        System.out.format("%-6s %12s %12s%n", "mode", "ms/doc", "L1 to ref");
+        for (String mode : new String[] { "gibbs", "phi", "em" }) {
+            long setup = System.nanoTime();
+            engine.setMode(mode);
+            setup = System.nanoTime() - setup;
+
+            // warm up, then time a second pass
+            double[][] theta = new double[docs.size()][];
+            for (int d = 0; d < docs.size(); d++) {
+                theta[d] = engine.infer(docs.get(d));
+            }
+            long start = System.nanoTime();
+            for (int d = 0; d < docs.size(); d++) {
+                theta[d] = engine.infer(docs.get(d));
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / docs.size();
+
+            double l1 = 0;
+            for (int d = 0; d < docs.size(); d++) {
+                for (int k = 0; k < K; k++) {
+                    l1 += Math.abs(theta[d][k] - reference[d][k]);
+                }
+            }
+            System.out.format("%-6s %12.4f %12.4f%s%n", mode, ms, l1 / docs.size(),
+                    setup > 1000000 ? String.format("  (phi computed in %.0f ms)", setup / 1e6) : "");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Starts an InferenceServer for a trained model on a free localhost port
+ * and sends it requests from concurrent clients, each request holding a
+ * few documents of a data file. Reports the client-side throughput and the
+ * statistics of the server (latency percentiles, batches).
+ *
+ *   java -cp bin:lib/* jgibblda.InferenceServerBenchmark models/casestudy model-final newdocs.gz 16 200 4 4
+ *
+ * Arguments: dir model dfile [clients [requests [docsPerRequest [nthreads [maxBatch [niters]]]]]]
+ */
+public class InferenceServerBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 3) {
+            System.out.println("InferenceServerBenchmark dir model dfile [clients [requests [docsPerRequest [nthreads [maxBatch [niters]]]]]]");
+            return;
+        }
+        LDACmdOption option = new LDACmdOption();
+        option.dir = args[0];
+        option.modelName = args[1];
+        String dfile = args[2];
+        final int clients = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        final int requests = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+        final int docsPerRequest = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        option.nthreads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+        option.maxBatch = args.length > 7 ? Integer.parseInt(args[7]) : 64;
+        option.niters = args.length > 8 ? Integer.parseInt(args[8]) : 50;
+        option.nburnin = option.niters / 2;
+        option.seed = 1;
+        option.port = 0;
+
+        final List<String> docs = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(option.dir + "/" + dfile)), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            docs.add(line);
+        }
+        reader.close();
+
+        InferenceServer server = InferenceServer.serve(option);
+        final URL url = new URL("http://localhost:" + server.getPort() + "/infer");
+
+        // warm up
+        post(url, docs.get(0));
+
+        final long[] failures = new long[1];
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            threads[c] = new Thread() {
+                public void run()
+                {
+                    for (int r = 0; r < requests; r++) {
+                        StringBuilder body = new StringBuilder();
+                        for (int i = 0; i < docsPerRequest; i++) {
+                            body.append(docs.get((int)(((long)(client * requests + r) * docsPerRequest + i) % docs.size())));
+                            body.append('\n');
+                        }
+                        try {
+                            post(url, body.toString());
+                        } catch (Exception e) {
+                            synchronized (failures) {
+                                failures[0]++;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long total = (long) clients * requests;
+        System.out.format("clients=%d requests=%d docs/request=%d threads=%d maxBatch=%d niters=%d%n",
+                clients, total, docsPerRequest, option.nthreads, option.maxBatch, option.niters);
+        System.out.format("%.2fs, %.1f requests/s, %.1f documents/s, %d failed%n",
+                seconds, total / seconds, total * docsPerRequest / seconds, failures[0]);
+        System.out.print("server stats: " + server.stats());
+        server.stop();
+    }
+
+    static String post(URL url, String body) throws Exception
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        OutputStream out = connection.getOutputStream();
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+
+        if (connection.getResponseCode() != 200) {
+            throw new RuntimeException("HTTP " + connection.getResponseCode());
+        }
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toString("UTF-8");
+    }
+}
@@ -0,0 +1,55 @@
+package jgibblda;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time to infer the topics of all the held-out documents of the synthetic
+ * corpus with InferenceEngine, per inference mode (inference.<mode> of
+ * BenchmarkSuite, which reports it per document)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InferenceBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Engine
+    {
+        @Param({ "gibbs", "phi", "em" })
+        public String mode;
+
+        InferenceEngine engine;
+
+        @Setup(Level.Trial)
+        public void setup(SyntheticCorpus corpus, TrainedModel trained) throws IOException
+        {
+            engine = InferenceEngine.load(corpus.option("", "dense"));
+            engine.setMode(mode);
+        }
+    }
+
+    @Benchmark
+    public void infer(SyntheticCorpus corpus, Engine engine, Blackhole bh)
+    {
+        for (String doc : corpus.heldOut) {
+            bh.consume(engine.engine.infer(doc));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package jgibblda;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to load the training documents of the synthetic corpus as text and
+ * in the binary dataset format, and to save and load a binary checkpoint
+ * of a model (load.*, save.checkpoint and load.checkpoint of
+ * BenchmarkSuite)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark
+{
+    @Benchmark
+    public LDADataset loadText(SyntheticCorpus corpus) throws IOException
+    {
+        LDADataset data = new LDADataset();
+        data.readDataSet(corpus.file("train.gz"), false);
+        return data;
+    }
+
+    @Benchmark
+    public LDADataset loadBinary(SyntheticCorpus corpus) throws IOException
+    {
+        LDADataset data = new LDADataset();
+        data.readDataSet(corpus.file("train.bin"), false);
+        return data;
+    }
+
+    @Benchmark
+    public boolean saveCheckpoint(SyntheticCorpus corpus, TrainedModel trained)
+    {
+        return trained.model.saveModelCheckpoint(corpus.file("save" + Model.checkpointSuffix));
+    }
+
+    @Benchmark
+    public Model loadCheckpoint(SyntheticCorpus corpus, TrainedModel trained) throws IOException
+    {
+        Model model = new Model(corpus.option("", "dense"));
+        model.init(false);
+        return model;
+    }
+}
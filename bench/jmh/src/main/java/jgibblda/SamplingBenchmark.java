@@ -0,0 +1,57 @@
+package jgibblda;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of a Gibbs sweep over the training documents of the synthetic
+ * corpus (sampling.<sampler> of BenchmarkSuite). The chain goes on from
+ * one sweep to the next, as during estimation. The labeled sampler needs
+ * labeled documents: -p sampler=labeled -p labelsPerDoc=5.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SamplingBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Chain
+    {
+        @Param({ "dense", "sparse", "alias" })
+        public String sampler;
+
+        Model model;
+        Sampler s;
+
+        @Setup(Level.Trial)
+        public void setup(SyntheticCorpus corpus) throws IOException
+        {
+            model = new Model(corpus.option("train.gz", sampler));
+            model.init(true);
+            s = Sampler.create(sampler, model, model.nw, model.nwsum, Rng.create(model.rngName, model.seed, 1));
+        }
+    }
+
+    @Benchmark
+    public void sweep(Chain chain)
+    {
+        for (int m = 0; m < chain.model.M; m++) {
+            chain.s.sampleDocument(m);
+        }
+    }
+}
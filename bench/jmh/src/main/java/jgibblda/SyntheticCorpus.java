@@ -0,0 +1,124 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The corpus of BenchmarkSuite, shared by the benchmarks of a trial: M
+ * documents of about 100 tokens over V words and K topics sampled by
+ * CorpusGenerator, with labelsPerDoc labels per document (unlabeled if
+ * 0), written to train.gz and train.bin in a temporary directory, and M /
+ * 10 held-out documents of the same topics in test.gz.
+ */
+@State(Scope.Benchmark)
+public class SyntheticCorpus
+{
+    @Param({ "2000" })
+    public int M;
+
+    @Param({ "10000" })
+    public int V;
+
+    @Param({ "100" })
+    public int K;
+
+    @Param({ "0" })
+    public int labelsPerDoc;
+
+    public File dir;
+    public CorpusGenerator generator;
+    public List<String> heldOut;    // lines of test.gz
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        dir = File.createTempFile("jgibblda-jmh", "");
+        dir.delete();
+        dir.mkdir();
+
+        generator = new CorpusGenerator();
+        generator.V = V;
+        generator.K = K;
+        generator.labelsPerDoc = labelsPerDoc;
+        generator.init();
+        generate(new File(dir, "train.gz"), M, 1);
+        generate(new File(dir, "test.gz"), Math.max(1, M / 10), 2);
+
+        LDADataset data = new LDADataset();
+        data.readDataSet(file("train.gz"), false);
+        data.writeBinaryDataSet(file("train.bin"));
+
+        heldOut = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(file("test.gz"))), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            heldOut.add(line);
+        }
+        reader.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public String file(String name)
+    {
+        return new File(dir, name).getPath();
+    }
+
+    /**
+     * Options of a model named "model" in the corpus directory
+     */
+    public LDACmdOption option(String dfile, String sampler)
+    {
+        LDACmdOption option = new LDACmdOption();
+        option.dir = dir.getPath();
+        option.dfile = dfile;
+        option.modelName = "model";
+        option.K = K;
+        option.sampler = sampler;
+        option.seed = 1;
+        option.twords = 0;
+        return option;
+    }
+
+    /**
+     * Write M documents of the corpus to file, from the given stream of the
+     * seed
+     */
+    private void generate(File file, int M, int stream) throws IOException
+    {
+        generator.M = M;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(file)), "UTF-8"));
+        try {
+            generator.generate(writer, null, Rng.create(generator.rngName, generator.seed, stream));
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package jgibblda;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A model estimated by the dense sampler for niters iterations on the
+ * synthetic corpus, saved as "model" (binary checkpoint, others and
+ * wordmap files) in the corpus directory, as in BenchmarkSuite
+ */
+@State(Scope.Benchmark)
+public class TrainedModel
+{
+    @Param({ "20" })
+    public int niters;
+
+    public Model model;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticCorpus corpus) throws IOException
+    {
+        model = new Model(corpus.option("train.gz", "dense"));
+        model.init(true);
+        Sampler s = Sampler.create("dense", model, model.nw, model.nwsum, Rng.create(model.rngName, model.seed, 1));
+        for (int iter = 0; iter < niters; iter++) {
+            for (int m = 0; m < model.M; m++) {
+                s.sampleDocument(m);
+            }
+        }
+        model.liter = niters;
+
+        if (!model.saveModelCheckpoint(corpus.file("model" + Model.checkpointSuffix))
+                || !model.saveModelOthers(corpus.file("model" + Model.othersSuffix))
+                || !model.data.localDict.writeWordMap(corpus.file("model" + Model.wordMapSuffix))) {
+            throw new IOException("Cannot save the model in " + corpus.dir);
+        }
+    }
+}
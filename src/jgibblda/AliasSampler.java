@@ -0,0 +1,288 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * Metropolis-Hastings sampler with alias-table proposals (AliasLDA /
+ * LightLDA). Each token alternates between a word proposal
+ *
+ *   q_w(k) ~ (nw[w][k] + beta) / (nwsum[k] + Vbeta)
+ *
+ * drawn from a per-word alias table (plus a shared table for the beta
+ * part), and a document proposal q_d(k) ~ nd[m][k] + alpha drawn by picking
+ * the topic of a random token of the document. The table of a word is
+ * rebuilt lazily once K of its tokens have been sampled since it was
+ * built, and the shared table after K tokens, so that the rebuilds (over
+ * the non-zero topics of the word, at most O(K)) cost amortized O(1) per
+ * token regardless of K; the acceptance step corrects for tables that are
+ * out of date. A word table built while token i had topic b still counts
+ * i under b, which would make the proposal of i depend on z_i and bias the
+ * chain, so that one count is taken out of the proposal of i (the topic of
+ * every token at the last build of its word is tracked lazily: a token
+ * sampled for the first time since the build still has it).
+ *
+ * Labeled documents are sampled by the dense label loop of GibbsSampler.
+ */
+public class AliasSampler extends GibbsSampler
+{
+    // number of Metropolis-Hastings steps per token, alternating word and doc proposals
+    public static final int MH_STEPS = 2;
+
+    private final double Vbeta;
+
+    // per-word tables over the non-zero topics of nw[w], weights nw[w][k] / (nwsum[k] + Vbeta)
+    private final AliasTable[] wordTables;
+    private final int[] wordAge; // tokens of each word sampled since its table was built
+    private final int[][] wordCounts; // nw[w][k] of each table entry at build time
+    private final int[] wordBuild; // number of builds of each word table
+
+    // per token of the documents sampled, relative to the first one (tokenStart):
+    // wordBuild of its word when last sampled, and its topic at that build
+    // (-1 if the token built the table itself, after taking out its count)
+    private final int tokenStart;
+    private final int[] tokenBuild;
+    private final int[] buildTopic;
+
+    // shared table over all topics, weights beta / (nwsum[k] + Vbeta)
+    private final AliasTable smoothingTable;
+    private int smoothingAge = 0; // tokens sampled since smoothingTable was built
+
+    private final int[] topics;
+    private final int[] scratch;
+
+    public AliasSampler(Model model, WordTopicCounts nw, int[] nwsum, Rng rng)
+    {
+        this(model, nw, nwsum, rng, 0, model.M);
+    }
+
+    /**
+     * Sampler of documents [mStart, mEnd) only
+     */
+    public AliasSampler(Model model, WordTopicCounts nw, int[] nwsum, Rng rng, int mStart, int mEnd)
+    {
+        super(model, nw, nwsum, rng);
+
+        Vbeta = model.V * model.beta;
+        wordTables = new AliasTable[model.V];
+        wordAge = new int[model.V];
+        wordCounts = new int[model.V][];
+        wordBuild = new int[model.V];
+        tokenStart = model.data.docStart(mStart);
+        tokenBuild = new int[model.data.docStart(mEnd) - tokenStart];
+        buildTopic = new int[tokenBuild.length];
+        smoothingTable = new AliasTable(model.K, false);
+        topics = new int[model.K];
+        scratch = new int[model.K];
+
+        countsChanged();
+    }
+
+    public void countsChanged()
+    {
+        buildSmoothingTable(smoothingTable, nwsum, model.beta, Vbeta, scratch);
+        smoothingAge = 0;
+        Arrays.fill(wordAge, model.K); // rebuild on next use
+    }
+
+    public void countsChanged(int[] words, int n)
+    {
+        buildSmoothingTable(smoothingTable, nwsum, model.beta, Vbeta, scratch);
+        smoothingAge = 0;
+        for (int i = 0; i < n; i++) {
+            wordAge[words[i]] = model.K;
+        }
+    }
+
+    public int sampling(int m, int n)
+    {
+        // labeled documents: dense sampling over the labels
+        int[] labels = model.data.labels(m);
+        if (labels != null) {
+            return super.sampling(m, n);
+        }
+
+        // remove z_i from the count variables
+        int i = model.data.docStart(m) + n;
+        int oldTopic = model.z[i];
+        int ti = i - tokenStart;
+        int w = model.data.word(m, n);
+        DocTopicCounts nd = model.nd;
+
+        nw.decrement(w, oldTopic);
+        nd.decrement(m, oldTopic);
+        nwsum[oldTopic] -= 1;
+        model.ndsum[m] -= 1;
+
+        // refresh stale proposal tables
+        if (++smoothingAge >= model.K) {
+            buildSmoothingTable(smoothingTable, nwsum, model.beta, Vbeta, scratch);
+            smoothingAge = 0;
+        }
+        AliasTable wordTable = wordTables[w];
+        if (wordTable == null || wordAge[w] >= model.K) {
+            wordTable = buildWordTable(wordTables, nw, w, nwsum, Vbeta, topics, scratch, wordCounts);
+            wordAge[w] = 0;
+            wordBuild[w]++;
+            tokenBuild[ti] = wordBuild[w];
+            buildTopic[ti] = -1;
+        }
+        wordAge[w]++;
+        if (tokenBuild[ti] != wordBuild[w]) {
+            tokenBuild[ti] = wordBuild[w];
+            buildTopic[ti] = oldTopic;
+        }
+
+        // weight of the count of z_i in the word table
+        int b = buildTopic[ti];
+        double self = 0;
+        if (b >= 0) {
+            int j = Arrays.binarySearch(wordTable.topics, 0, wordTable.size, b);
+            if (j >= 0) {
+                self = wordTable.weights[j] / wordCounts[w][j];
+            } else {
+                b = -1; // not in a truncated table
+            }
+        }
+
+        int docLength = model.data.docLength(m);
+        double alpha = model.alpha, beta = model.beta;
+
+        int s = oldTopic;
+        for (int step = 0; step < MH_STEPS; step++) {
+            int t;
+            double accept;
+            if (step % 2 == 0) {
+                // word proposal
+                t = proposeWord(wordTable, b, self, smoothingTable, rng);
+                if (t == s) continue;
+
+                double q_s = wordTable.weight(s) - (s == b ? self : 0) + smoothingTable.weight(s);
+                double q_t = wordTable.weight(t) - (t == b ? self : 0) + smoothingTable.weight(t);
+                accept = (nd.get(m, t) + alpha) * (nw.get(w, t) + beta) * (nwsum[s] + Vbeta) * q_s
+                    / ((nd.get(m, s) + alpha) * (nw.get(w, s) + beta) * (nwsum[t] + Vbeta) * q_t);
+            } else {
+                // doc proposal: topic of a random other token, or a uniform topic;
+                // q_d(k) must not depend on z_i, or the steps after the first
+                // one would not leave p(z_i | z_-i, w) invariant
+                t = proposeDoc(model.z, model.data.docStart(m), docLength, n, model.K, alpha, rng);
+                if (t == s) continue;
+
+                double q_s = nd.get(m, s) + alpha;
+                double q_t = nd.get(m, t) + alpha;
+                accept = (nd.get(m, t) + alpha) * (nw.get(w, t) + beta) * (nwsum[s] + Vbeta) * q_s
+                    / ((nd.get(m, s) + alpha) * (nw.get(w, s) + beta) * (nwsum[t] + Vbeta) * q_t);
+            }
+
+            if (accept >= 1.0 || rng.nextDouble() < accept) {
+                s = t;
+            }
+        }
+
+        // add newly estimated z_i to count variables
+        nw.increment(w, s);
+        nd.increment(m, s);
+        nwsum[s] += 1;
+        model.ndsum[m] += 1;
+
+        return s;
+    }
+
+    /**
+     * Draw a topic from the mixture of a word table and the smoothing table
+     */
+    static int proposeWord(AliasTable wordTable, AliasTable smoothingTable, Rng rng)
+    {
+        double u = rng.nextDouble() * (wordTable.total + smoothingTable.total);
+        if (u < wordTable.total) {
+            return wordTable.sample(rng.nextDouble());
+        }
+        return smoothingTable.sample(rng.nextDouble());
+    }
+
+    /**
+     * Draw a topic from the mixture of a word table with weight self taken
+     * out of topic b (by rejection) and the smoothing table
+     */
+    static int proposeWord(AliasTable wordTable, int b, double self, AliasTable smoothingTable, Rng rng)
+    {
+        if (b < 0) {
+            return proposeWord(wordTable, smoothingTable, rng);
+        }
+        double wordTotal = wordTable.total - self;
+        double u = rng.nextDouble() * (wordTotal + smoothingTable.total);
+        if (u < wordTotal) {
+            double weight = wordTable.weight(b);
+            while (true) {
+                int t = wordTable.sample(rng.nextDouble());
+                if (t != b || rng.nextDouble() * weight < weight - self) {
+                    return t;
+                }
+            }
+        }
+        return smoothingTable.sample(rng.nextDouble());
+    }
+
+    /**
+     * Draw a topic from q_d(k) ~ nd[m][k] + alpha without z_i, i.e., the
+     * topic of a random token of the document other than n, or a uniform
+     * topic
+     */
+    static int proposeDoc(int[] z, int docStart, int docLength, int n, int K, double alpha, Rng rng)
+    {
+        double u = rng.nextDouble() * (docLength - 1 + K * alpha);
+        if (u < docLength - 1) {
+            int j = (int)u;
+            return z[docStart + (j < n ? j : j + 1)];
+        }
+        return Math.min(K - 1, (int)((u - (docLength - 1)) / alpha));
+    }
+
+    /**
+     * (Re)build the table of word w over its non-zero topics in nw
+     * @param topics temp buffer of size K
+     * @param scratch temp buffer of size K
+     * @param wordCounts if not null, wordCounts[w] gets the count of every entry
+     */
+    static AliasTable buildWordTable(AliasTable[] wordTables, WordTopicCounts nw, int w, int[] nwsum,
+            double Vbeta, int[] topics, int[] scratch, int[][] wordCounts)
+    {
+        int K = nw.getK();
+        int size = nw.nonZeroTopics(w, topics, scratch);
+        AliasTable table = wordTables[w];
+        if (table == null) {
+            // a word can't have more non-zero topics than occurrences
+            int freq = 0;
+            for (int i = 0; i < size; i++) {
+                freq += scratch[i];
+            }
+            table = new AliasTable(Math.max(1, Math.min(K, freq + 1)), true);
+            wordTables[w] = table;
+        }
+
+        size = Math.min(size, table.weights.length);
+        for (int i = 0; i < size; i++) {
+            table.topics[i] = topics[i];
+            table.weights[i] = scratch[i] / (nwsum[topics[i]] + Vbeta);
+        }
+        if (wordCounts != null) {
+            if (wordCounts[w] == null) {
+                wordCounts[w] = new int[table.weights.length];
+            }
+            System.arraycopy(scratch, 0, wordCounts[w], 0, size);
+        }
+        table.build(size, scratch);
+        return table;
+    }
+
+    /**
+     * (Re)build the shared table for the beta part of the word proposal
+     */
+    static void buildSmoothingTable(AliasTable table, int[] nwsum, double beta, double Vbeta,
+            int[] scratch)
+    {
+        for (int k = 0; k < nwsum.length; k++) {
+            table.weights[k] = beta / (nwsum[k] + Vbeta);
+        }
+        table.build(nwsum.length, scratch);
+    }
+}
@@ -0,0 +1,112 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * Walker alias table for drawing topics in O(1) from a fixed discrete
+ * distribution (built with Vose's method). The table remembers the weights
+ * it was built from, so that Metropolis-Hastings samplers can evaluate the
+ * (possibly stale) proposal probability of any topic. Drawing doesn't
+ * modify the table, so a built table can be shared by threads.
+ */
+public class AliasTable
+{
+    protected int size = 0;        // number of entries
+    protected final int[] topics;  // topic of each entry, sorted, or null if entry i is topic i
+    protected final double[] weights; // unnormalized weight of each entry
+    protected double total = 0;    // sum of the weights
+
+    private final double[] prob;
+    private final int[] alias;
+
+    /**
+     * @param capacity maximum number of entries
+     * @param sparse whether entries are mapped to topics through topics[]
+     */
+    public AliasTable(int capacity, boolean sparse)
+    {
+        topics = sparse ? new int[capacity] : null;
+        weights = new double[capacity];
+        prob = new double[capacity];
+        alias = new int[capacity];
+    }
+
+    /**
+     * Build the table from the first size entries of weights[] (and topics[])
+     * @param scratch temp buffer with at least size elements
+     */
+    public void build(int size, int[] scratch)
+    {
+        this.size = size;
+
+        total = 0;
+        for (int i = 0; i < size; i++) {
+            total += weights[i];
+        }
+        if (size == 0 || total <= 0) {
+            return;
+        }
+
+        // small entries are pushed at the front of scratch, large ones at the back
+        int nSmall = 0, nLarge = 0;
+        double mean = total / size;
+        for (int i = 0; i < size; i++) {
+            prob[i] = weights[i] / mean;
+            alias[i] = i;
+            if (prob[i] < 1.0) {
+                scratch[nSmall++] = i;
+            } else {
+                scratch[size - 1 - nLarge++] = i;
+            }
+        }
+
+        while (nSmall > 0 && nLarge > 0) {
+            int s = scratch[--nSmall];
+            int l = scratch[size - nLarge];
+
+            alias[s] = l;
+            prob[l] += prob[s] - 1.0;
+            if (prob[l] < 1.0) {
+                nLarge--;
+                scratch[nSmall++] = l;
+            }
+        }
+
+        // whatever is left over is (up to rounding) exactly full
+        while (nSmall > 0) {
+            prob[scratch[--nSmall]] = 1.0;
+        }
+        while (nLarge > 0) {
+            prob[scratch[size - nLarge--]] = 1.0;
+        }
+    }
+
+    /**
+     * Draw a topic
+     * @param u uniform random number in [0, 1)
+     */
+    public int sample(double u)
+    {
+        double x = u * size;
+        int i = (int)x;
+        if (i >= size) {
+            i = size - 1;
+        }
+        if (x - i >= prob[i]) {
+            i = alias[i];
+        }
+        return topics == null ? i : topics[i];
+    }
+
+    /**
+     * Weight of the given topic when the table was built
+     */
+    public double weight(int topic)
+    {
+        if (topics == null) {
+            return weights[topic];
+        }
+        int i = Arrays.binarySearch(topics, 0, size, topic);
+        return i < 0 ? 0.0 : weights[i];
+    }
+}
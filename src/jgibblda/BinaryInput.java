@@ -0,0 +1,94 @@
+package jgibblda;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential little-endian reader for the binary dataset and checkpoint
+ * formats. Sections are read through memory maps of the file; a map stays
+ * valid after the file is closed.
+ */
+class BinaryInput
+{
+    // large int sections are mapped in chunks of 2^CHUNK_BITS ints (1 GB)
+    public static final int CHUNK_BITS = 28;
+    public static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private long position = 0;
+
+    public BinaryInput(String filename) throws IOException
+    {
+        file = new RandomAccessFile(filename, "r");
+        channel = file.getChannel();
+    }
+
+    public long remaining() throws IOException
+    {
+        return channel.size() - position;
+    }
+
+    /**
+     * Map the next size bytes (less than 2 GB)
+     */
+    public ByteBuffer map(long size) throws IOException
+    {
+        if (size > remaining()) {
+            throw new IOException("Unexpected end of file");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+        position += size;
+        return buffer;
+    }
+
+    /**
+     * Map the next count ints, in chunks: int i is
+     * chunks[i >>> CHUNK_BITS].get(i & CHUNK_MASK)
+     */
+    public IntBuffer[] mapInts(int count) throws IOException
+    {
+        int chunks = (int) ((count + (long) CHUNK_MASK) >>> CHUNK_BITS);
+        IntBuffer[] buffers = new IntBuffer[chunks];
+        for (int c = 0; c < chunks; c++) {
+            long length = Math.min(1L << CHUNK_BITS, count - ((long) c << CHUNK_BITS));
+            buffers[c] = map(4 * length).asIntBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Read the next values.length ints into values
+     */
+    public void readInts(int[] values) throws IOException
+    {
+        IntBuffer[] buffers = mapInts(values.length);
+        for (int c = 0; c < buffers.length; c++) {
+            buffers[c].get(values, c << CHUNK_BITS, buffers[c].remaining());
+        }
+    }
+
+    public int[] readInts(int count) throws IOException
+    {
+        int[] values = new int[count];
+        readInts(values);
+        return values;
+    }
+
+    public void skip(long bytes) throws IOException
+    {
+        if (bytes > remaining()) {
+            throw new IOException("Unexpected end of file");
+        }
+        position += bytes;
+    }
+
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
@@ -0,0 +1,87 @@
+package jgibblda;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered little-endian writer for the binary dataset and checkpoint
+ * formats
+ */
+class BinaryOutput
+{
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+    public BinaryOutput(String filename) throws IOException
+    {
+        out = new FileOutputStream(filename);
+        channel = out.getChannel();
+    }
+
+    public void putInt(int value) throws IOException
+    {
+        if (buffer.remaining() < 4) {
+            flush();
+        }
+        buffer.putInt(value);
+    }
+
+    public void putLong(long value) throws IOException
+    {
+        if (buffer.remaining() < 8) {
+            flush();
+        }
+        buffer.putLong(value);
+    }
+
+    public void putDouble(double value) throws IOException
+    {
+        putLong(Double.doubleToLongBits(value));
+    }
+
+    public void putFloat(float value) throws IOException
+    {
+        putInt(Float.floatToIntBits(value));
+    }
+
+    public void putInts(int[] values, int offset, int length) throws IOException
+    {
+        for (int i = offset; i < offset + length; i++) {
+            putInt(values[i]);
+        }
+    }
+
+    public void putBytes(byte[] bytes) throws IOException
+    {
+        for (int i = 0; i < bytes.length; ) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - i);
+            buffer.put(bytes, i, length);
+            i += length;
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException
+    {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
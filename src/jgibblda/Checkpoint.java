@@ -0,0 +1,309 @@
+package jgibblda;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary model checkpoint holding the hyperparameters, documents, topic
+ * assignments and counts of a model, so that it can be restored without
+ * parsing the .tassign.gz file and recounting. The file is little-endian
+ * and uncompressed, so that it is read through memory maps:
+ *
+ *   header     - magic, version, K, M, V, number of tokens, liter,
+ *                flags, seed (long), alpha, beta
+ *   documents  - document start offsets (M + 1 ints), label start offsets
+ *                (M + 1 ints), labels, word ids (one int per token)
+ *   z          - one topic per token
+ *   nwsum      - K ints
+ *   nw         - entry start offsets per word (V + 1 ints), then the
+ *                non-zero counts as (topic, count) pairs
+ *   nd         - entry start offsets per document (M + 1 ints), then the
+ *                non-zero counts as (topic, count) pairs
+ */
+class Checkpoint
+{
+    public static final int MAGIC = 0x54504b43; // "CKPT"
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 56;
+    private static final int V1_HEADER_SIZE = 48; // without the seed
+
+    // header flags
+    public static final int STOPPED_EARLY = 1;
+
+    /**
+     * Write the model to filename; the file is replaced atomically, so
+     * that a model mapped from the previous checkpoint stays valid
+     */
+    public static void write(Model model, String filename) throws IOException
+    {
+        LDADataset data = model.data;
+        int K = model.K;
+        File tmpFile = new File(filename + ".tmp");
+        BinaryOutput out = new BinaryOutput(tmpFile.getPath());
+        try {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(K);
+            out.putInt(model.M);
+            out.putInt(model.V);
+            out.putInt(data.numTokens());
+            out.putInt(model.liter);
+            out.putInt(model.stoppedEarly ? STOPPED_EARLY : 0);
+            out.putLong(model.seed);
+            out.putDouble(model.alpha);
+            out.putDouble(model.beta);
+
+            // documents
+            for (int m = 0; m <= model.M; m++) {
+                out.putInt(data.docStart(m));
+            }
+            LDADataset.writeLabels(out, data.labels, model.M);
+            for (int m = 0; m < model.M; m++) {
+                for (int n = 0; n < data.docLength(m); n++) {
+                    out.putInt(data.word(m, n));
+                }
+            }
+
+            out.putInts(model.z, 0, data.numTokens());
+            if (model.nw != null) {
+                writeCounts(out, model);
+            } else {
+                writeCountsOfZ(out, model);
+            }
+        } finally {
+            out.close();
+        }
+
+        File file = new File(filename);
+        if (!tmpFile.renameTo(file)) {
+            // renameTo doesn't replace existing files on every platform
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Write nwsum, nw and nd of the model
+     */
+    private static void writeCounts(BinaryOutput out, Model model) throws IOException
+    {
+        int K = model.K;
+        out.putInts(model.nwsum, 0, K);
+
+        // nw, one pass to count the entries of every word and one to write them
+        int[] row = new int[K];
+        int entries = 0;
+        out.putInt(0);
+        for (int w = 0; w < model.V; w++) {
+            model.nw.getRow(w, row);
+            for (int k = 0; k < K; k++) {
+                entries += row[k] != 0 ? 1 : 0;
+            }
+            out.putInt(entries);
+        }
+        for (int w = 0; w < model.V; w++) {
+            model.nw.getRow(w, row);
+            for (int k = 0; k < K; k++) {
+                if (row[k] != 0) {
+                    out.putInt(k);
+                    out.putInt(row[k]);
+                }
+            }
+        }
+
+        // nd
+        int[] topics = new int[K];
+        int[] counts = new int[K];
+        entries = 0;
+        out.putInt(0);
+        for (int m = 0; m < model.M; m++) {
+            entries += model.nd.nonZeroTopics(m, topics, counts);
+            out.putInt(entries);
+        }
+        for (int m = 0; m < model.M; m++) {
+            int n = model.nd.nonZeroTopics(m, topics, counts);
+            for (int i = 0; i < n; i++) {
+                out.putInt(topics[i]);
+                out.putInt(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Write nwsum, nw and nd counted from the topic assignments of a model
+     * without counts (a snapshot, see CheckpointWriter), with one int per
+     * token for the topics of the tokens grouped by word
+     */
+    private static void writeCountsOfZ(BinaryOutput out, Model model) throws IOException
+    {
+        LDADataset data = model.data;
+        int K = model.K;
+        int[] z = model.z;
+        int ntokens = data.numTokens();
+
+        int[] nwsum = new int[K];
+        for (int i = 0; i < ntokens; i++) {
+            nwsum[z[i]]++;
+        }
+        out.putInts(nwsum, 0, K);
+
+        // topics of the tokens of every word, grouped by word
+        int[] wordStart = new int[model.V + 1];
+        for (int m = 0; m < model.M; m++) {
+            for (int n = 0; n < data.docLength(m); n++) {
+                wordStart[data.word(m, n) + 1]++;
+            }
+        }
+        for (int w = 0; w < model.V; w++) {
+            wordStart[w + 1] += wordStart[w];
+        }
+        int[] wordZ = new int[ntokens];
+        int[] next = wordStart.clone();
+        for (int m = 0; m < model.M; m++) {
+            int start = data.docStart(m);
+            for (int n = 0; n < data.docLength(m); n++) {
+                wordZ[next[data.word(m, n)]++] = z[start + n];
+            }
+        }
+
+        int[] docStart = new int[model.M + 1];
+        for (int m = 0; m <= model.M; m++) {
+            docStart[m] = data.docStart(m);
+        }
+
+        int[] topics = new int[K];
+        int[] counts = new int[K];
+        writeCountsOfZ(out, wordZ, wordStart, model.V, topics, counts);
+        writeCountsOfZ(out, z, docStart, model.M, topics, counts);
+    }
+
+    /**
+     * Write the counts of rows [0, nrows), row r counting the topics of
+     * z[start[r] .. start[r + 1]), as entry start offsets and (topic,
+     * count) pairs
+     * @param topics temp buffer of size K
+     * @param counts temp buffer of size K, all 0
+     */
+    private static void writeCountsOfZ(BinaryOutput out, int[] z, int[] start, int nrows,
+            int[] topics, int[] counts) throws IOException
+    {
+        // one pass to count the entries of every row and one to write them
+        int entries = 0;
+        out.putInt(0);
+        for (int r = 0; r < nrows; r++) {
+            int n = countTopics(z, start[r], start[r + 1], topics, counts);
+            for (int i = 0; i < n; i++) {
+                counts[topics[i]] = 0;
+            }
+            entries += n;
+            out.putInt(entries);
+        }
+        for (int r = 0; r < nrows; r++) {
+            int n = countTopics(z, start[r], start[r + 1], topics, counts);
+            for (int i = 0; i < n; i++) {
+                out.putInt(topics[i]);
+                out.putInt(counts[topics[i]]);
+                counts[topics[i]] = 0;
+            }
+        }
+    }
+
+    /**
+     * Count the topics of z[start .. end) into counts, and put the topics
+     * found into topics in increasing order; returns their number
+     */
+    private static int countTopics(int[] z, int start, int end, int[] topics, int[] counts)
+    {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            if (counts[z[i]]++ == 0) {
+                topics[n++] = z[i];
+            }
+        }
+        Arrays.sort(topics, 0, n);
+        return n;
+    }
+
+    /**
+     * Restore the model from filename, using the count layouts of the
+     * model. With mmap, the word ids stay memory-mapped instead of being
+     * read into the heap.
+     */
+    public static void read(Model model, String filename, boolean mmap) throws IOException
+    {
+        BinaryInput in = new BinaryInput(filename);
+        try {
+            ByteBuffer header = in.map(8);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a model checkpoint: " + filename);
+            }
+            int version = header.getInt();
+            if (version != VERSION && version != 1) {
+                throw new IOException("Unsupported checkpoint version " + version + " in " + filename);
+            }
+            header = in.map((version == 1 ? V1_HEADER_SIZE : HEADER_SIZE) - 8);
+            int K = model.K = header.getInt();
+            int M = model.M = header.getInt();
+            int V = model.V = header.getInt();
+            int numTokens = header.getInt();
+            model.liter = header.getInt();
+            int flags = header.getInt(); // reserved (0) in version 1
+            model.stoppedEarly = (flags & STOPPED_EARLY) != 0;
+            if (version != 1) {
+                model.restoreSeed(header.getLong());
+            }
+            model.alpha = header.getDouble();
+            model.beta = header.getDouble();
+
+            // documents
+            int[] docStarts = in.readInts(M + 1);
+            int[] labelStarts = in.readInts(M + 1);
+            int[][] labels = LDADataset.readLabels(in, labelStarts, labelStarts[M]);
+            LDADataset data = new LDADataset();
+            if (mmap) {
+                data.setDocuments(M, docStarts, labels, null, in.mapInts(numTokens));
+            } else {
+                data.setDocuments(M, docStarts, labels, in.readInts(numTokens), null);
+            }
+            data.V = V;
+            model.data = data;
+
+            model.z = in.readInts(numTokens);
+            model.nwsum = in.readInts(K);
+
+            // nw
+            int[] starts = in.readInts(V + 1);
+            int[] entries = in.readInts(2 * starts[V]);
+            int[] freq = new int[V];
+            for (int w = 0; w < V; w++) {
+                for (int e = starts[w]; e < starts[w + 1]; e++) {
+                    freq[w] += entries[2 * e + 1];
+                }
+            }
+            model.nw = WordTopicCounts.create(model.nwLayout, V, K, model.nwAlign, freq);
+            for (int w = 0; w < V; w++) {
+                for (int e = starts[w]; e < starts[w + 1]; e++) {
+                    model.nw.set(w, entries[2 * e], entries[2 * e + 1]);
+                }
+            }
+
+            // nd
+            starts = in.readInts(M + 1);
+            entries = in.readInts(2 * starts[M]);
+            model.nd = DocTopicCounts.create(model.ndLayout, data, M, K);
+            model.ndsum = new int[M];
+            for (int m = 0; m < M; m++) {
+                for (int e = starts[m]; e < starts[m + 1]; e++) {
+                    model.nd.add(m, entries[2 * e], entries[2 * e + 1]);
+                }
+                model.ndsum[m] = data.docLength(m);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
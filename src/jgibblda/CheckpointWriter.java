@@ -0,0 +1,119 @@
+package jgibblda;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Saves snapshots of a model being estimated on a background thread, as
+ * model-XXXXX (the iteration) next to the model, keeping the last few of
+ * them. The sampling thread only copies z into one of two buffers; the
+ * writer thread saves the copy, without building the counts: the text
+ * format only holds z, and the binary one is counted from z on the fly.
+ * A snapshot thus takes the two buffers (one int per token each), plus
+ * one int per token while a binary snapshot is written. If both buffers
+ * are still being written, the sampling thread waits for the older one.
+ */
+class CheckpointWriter
+{
+    protected final Model model;
+    protected final int keep; // number of snapshots kept on disk
+
+    protected final ExecutorService executor;
+    protected final int[][] buffers = new int[2][];
+    protected final Future<?>[] pending = new Future<?>[2];
+    protected int next = 0;
+
+    // names of the saved snapshots, oldest first (used by the writer thread only)
+    protected final LinkedList<String> saved = new LinkedList<String>();
+
+    public CheckpointWriter(Model model, int keep)
+    {
+        this.model = model;
+        this.keep = keep;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "checkpoint-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Snapshot the model after iteration model.liter and queue it for saving
+     */
+    public void snapshot()
+    {
+        int i = next;
+        next = 1 - next;
+        await(pending[i]);
+
+        if (buffers[i] == null) {
+            buffers[i] = new int[model.z.length];
+        }
+        final int[] z = buffers[i];
+        System.arraycopy(model.z, 0, z, 0, z.length);
+        final int liter = model.liter;
+
+        pending[i] = executor.submit(new Runnable() {
+            public void run()
+            {
+                save(z, liter);
+            }
+        });
+    }
+
+    protected void save(int[] z, int liter)
+    {
+        Model snapshot = new Model(model, z);
+        snapshot.liter = liter;
+        snapshot.modelName = String.format(Locale.ROOT, "%s-%05d", model.modelName, liter);
+        if (!snapshot.saveCheckpoint()) {
+            System.out.println("Fail to save checkpoint " + snapshot.modelName);
+            return;
+        }
+
+        saved.add(snapshot.modelName);
+        while (saved.size() > keep) {
+            String name = saved.removeFirst();
+            for (String suffix : new String[] { Model.checkpointSuffix, Model.tassignSuffix, Model.othersSuffix, Model.wordMapSuffix }) {
+                new File(model.dir + File.separator + name + suffix).delete();
+            }
+        }
+    }
+
+    /**
+     * Wait for the queued snapshots to be saved and stop the writer thread
+     */
+    public void close()
+    {
+        try {
+            await(pending[0]);
+            await(pending[1]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(Future<?> future)
+    {
+        if (future == null) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while saving checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while saving checkpoint: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package jgibblda;
+
+/**
+ * Early stopping of Gibbs sampling, checked every step iterations:
+ *
+ *   ll      - the relative change of the joint log-likelihood since the
+ *             previous check is below the tolerance
+ *   changes - the fraction of tokens whose topic changed during the
+ *             checked iteration is below the tolerance
+ */
+class ConvergenceMonitor
+{
+    protected final String criterion;
+    protected final double tolerance;
+    protected final int step;
+
+    protected int[] previousZ = null;
+    protected double previousLogLikelihood = Double.NaN;
+    protected double lastValue = Double.NaN; // statistic of the last check
+
+    public ConvergenceMonitor(String criterion, double tolerance, int step)
+    {
+        if (!criterion.equalsIgnoreCase("ll") && !criterion.equalsIgnoreCase("changes")) {
+            throw new IllegalArgumentException("Unknown stopping criterion: " + criterion);
+        }
+        if (step < 1) {
+            throw new IllegalArgumentException("The number of iterations between convergence checks must be positive: " + step);
+        }
+        this.criterion = criterion.toLowerCase();
+        this.tolerance = tolerance;
+        this.step = step;
+    }
+
+    /**
+     * Call before sampling iteration iter, with the topic assignments
+     */
+    public void beforeIteration(int iter, int[] z, int ntokens)
+    {
+        if (criterion.equals("changes") && iter % step == 0) {
+            if (previousZ == null || previousZ.length < ntokens) {
+                previousZ = new int[ntokens];
+            }
+            System.arraycopy(z, 0, previousZ, 0, ntokens);
+        }
+    }
+
+    /**
+     * Call after sampling iteration iter; true if the chain has converged
+     */
+    public boolean converged(int iter, Model model, int[] z, int ntokens)
+    {
+        if (iter % step != 0) {
+            return false;
+        }
+
+        if (criterion.equals("changes")) {
+            int changed = 0;
+            for (int i = 0; i < ntokens; i++) {
+                changed += z[i] != previousZ[i] ? 1 : 0;
+            }
+            lastValue = ntokens == 0 ? 0.0 : (double) changed / ntokens;
+            return lastValue < tolerance;
+        }
+
+        double ll = model.logLikelihood();
+        lastValue = Math.abs((ll - previousLogLikelihood) / previousLogLikelihood);
+        previousLogLikelihood = ll;
+        return lastValue < tolerance; // false on the first check (NaN)
+    }
+
+    /**
+     * Description of the last check, e.g., "relative change of the
+     * log-likelihood 1.2e-05"
+     */
+    public String lastCheck()
+    {
+        return String.format(criterion.equals("ll") ? "relative change of the log-likelihood %.3g" :
+                "fraction of changed topics %.3g", lastValue);
+    }
+}
@@ -0,0 +1,405 @@
+package jgibblda;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Samples a corpus from the LDA generative process, or from the labeled LDA
+ * one when labelsPerDoc > 0:
+ *
+ *   phi_k ~ Dirichlet(beta) over V words, for every topic k
+ *   for every document:
+ *       labels: labelsPerDoc distinct topics drawn uniformly (all K if 0)
+ *       theta ~ Dirichlet(alpha) over its labels
+ *       length ~ Poisson(docLength)
+ *       for every token: z ~ theta, w ~ phi_z
+ *
+ * Documents are written one per line in the format read by
+ * LDADataset.addDoc(), with word w written as "w<w>" and labeled documents
+ * prefixed by "[label ...]". They are streamed, so memory only depends on
+ * K x V (one alias table per topic), not on the number of documents. The
+ * same seed gives the same corpus.
+ *
+ * The ground truth is saved in the layout of estimated models (twords,
+ * wordmap and others files, and the largest theta proportions of every
+ * document while generating), with phi in a sparse binary file, and
+ * recoveryError() compares it to the topics of an estimated model.
+ */
+public class CorpusGenerator
+{
+    public int M = 1000;          // number of documents
+    public int V = 10000;         // vocabulary size
+    public int K = 100;           // number of topics
+    public int docLength = 100;   // mean document length
+    public int labelsPerDoc = 0;  // labels per document (0 for unlabeled LDA)
+    public double alpha = 0.1;
+    public double beta = 0.01;
+    public long seed = 1;
+    public String rngName = "xoroshiro";
+    public int twords = 20;       // top words saved per topic
+    public int thetaTopics = 10;  // largest proportions saved per document (0 for no theta file)
+
+    public long ntokens = 0;      // tokens generated so far
+    public long nchars = 0;       // characters of the documents written so far
+
+    // smaller probabilities are left out of the saved phi and theta; with
+    // small hyperparameters, most of the draws are, and no corpus of
+    // practical size can tell them from 0
+    public static double minSavedProb = 1e-6;
+
+    public static String phiBinarySuffix = ".phi.bin"; // suffix for the sparse binary phi file
+
+    // tables[k] draws words from phi_k, whose weights are phi_k
+    protected AliasTable[] tables = null;
+
+    /**
+     * Sample the topics
+     */
+    public void init()
+    {
+        Rng rng = Rng.create(rngName, seed, 0);
+        tables = new AliasTable[K];
+        double[] phi_k = new double[V];
+        int[] scratch = new int[V];
+        for (int k = 0; k < K; k++) {
+            dirichlet(rng, beta, phi_k, V);
+            tables[k] = new AliasTable(V, false);
+            System.arraycopy(phi_k, 0, tables[k].weights, 0, V);
+            tables[k].build(V, scratch);
+        }
+    }
+
+    /**
+     * phi[k][w] of the ground truth
+     */
+    public double phi(int k, int w)
+    {
+        return tables[k].weights[w] / tables[k].total;
+    }
+
+    /**
+     * Write the documents to docs and, if not null, their true topic
+     * proportions to theta (one document per line, "topic:proportion" for
+     * the thetaTopics largest ones by decreasing proportion, leaving out
+     * proportions below minSavedProb)
+     */
+    public void generate(Writer docs, Writer theta) throws IOException
+    {
+        generate(docs, theta, Rng.create(rngName, seed, 1));
+    }
+
+    /**
+     * Same, drawing the documents from rng (e.g., another stream of the
+     * seed for held-out documents of the same topics)
+     */
+    public void generate(Writer docs, Writer theta, Rng rng) throws IOException
+    {
+        if (tables == null) {
+            init();
+        }
+        int ntopics = labelsPerDoc > 0 ? Math.min(labelsPerDoc, K) : K;
+        int[] perm = new int[K];
+        for (int k = 0; k < K; k++) {
+            perm[k] = k;
+        }
+        int[] topics = new int[ntopics];
+        double[] theta_m = new double[ntopics];
+        double[] cdf = new double[ntopics];
+        StringBuilder line = new StringBuilder();
+
+        for (int m = 0; m < M; m++) {
+            line.setLength(0);
+            if (labelsPerDoc > 0) {
+                // partial Fisher-Yates shuffle: the first ntopics entries are a uniform subset
+                for (int i = 0; i < ntopics; i++) {
+                    int j = i + rng.nextInt(K - i);
+                    int tmp = perm[i];
+                    perm[i] = perm[j];
+                    perm[j] = tmp;
+                }
+                System.arraycopy(perm, 0, topics, 0, ntopics);
+                Arrays.sort(topics);
+                line.append('[');
+                for (int i = 0; i < ntopics; i++) {
+                    line.append(i > 0 ? " " : "").append(topics[i]);
+                }
+                line.append("] ");
+            } else {
+                System.arraycopy(perm, 0, topics, 0, K);
+            }
+
+            dirichlet(rng, alpha, theta_m, ntopics);
+            double sum = 0;
+            for (int i = 0; i < ntopics; i++) {
+                sum += theta_m[i];
+                cdf[i] = sum;
+            }
+
+            int length = poisson(rng, docLength);
+            for (int n = 0; n < length; n++) {
+                int i = Arrays.binarySearch(cdf, rng.nextDouble() * sum);
+                i = i < 0 ? Math.min(-i - 1, ntopics - 1) : i;
+                int w = tables[topics[i]].sample(rng.nextDouble());
+                line.append(n > 0 ? " w" : "w").append(w);
+            }
+            line.append('\n');
+            docs.write(line.toString());
+            ntokens += length;
+            nchars += line.length();
+
+            if (theta != null) {
+                line.setLength(0);
+                for (int i : TopN.select(theta_m, ntopics, thetaTopics)) {
+                    if (theta_m[i] / sum < minSavedProb) {
+                        break;
+                    }
+                    line.append(topics[i]).append(':').append(theta_m[i] / sum).append(' ');
+                }
+                line.append('\n');
+                theta.write(line.toString());
+            }
+        }
+    }
+
+    /**
+     * Generate the corpus into dfile (gzipped) and save the ground truth
+     * as model modelName, with its theta unless thetaTopics is 0, in dir
+     */
+    public void generate(String dir, String dfile, String modelName) throws IOException
+    {
+        init();
+        String prefix = dir + File.separator + modelName;
+        Writer docs = writer(dir + File.separator + dfile);
+        Writer theta = thetaTopics > 0 ? writer(prefix + Model.thetaSuffix) : null;
+        try {
+            generate(docs, theta);
+        } finally {
+            docs.close();
+            if (theta != null) {
+                theta.close();
+            }
+        }
+        saveTruth(prefix);
+    }
+
+    /**
+     * Save the phi, twords, wordmap and others files of the ground truth
+     */
+    public void saveTruth(String prefix) throws IOException
+    {
+        savePhi(prefix + phiBinarySuffix);
+
+        Writer writer = writer(prefix + Model.twordsSuffix);
+        int[][] top = TopN.selectRows(weightRows(), twords, 1);
+        for (int k = 0; k < K; k++) {
+            writer.write("Topic " + k + ":\n");
+            for (int w : top[k]) {
+                writer.write("\tw" + w + "\t" + phi(k, w) + "\n");
+            }
+        }
+        writer.close();
+
+        writer = writer(prefix + Model.wordMapSuffix);
+        for (int w = 0; w < V; w++) {
+            writer.write("w" + w + "\n");
+        }
+        writer.close();
+
+        writer = writer(prefix + Model.othersSuffix);
+        writer.write("alpha=" + alpha + "\n");
+        writer.write("beta=" + beta + "\n");
+        writer.write("ntopics=" + K + "\n");
+        writer.write("ndocs=" + M + "\n");
+        writer.write("nwords=" + V + "\n");
+        writer.write("labelsperdoc=" + labelsPerDoc + "\n");
+        writer.write("seed=" + seed + "\n");
+        writer.close();
+    }
+
+    /**
+     * Save phi to filename, little-endian and uncompressed: K and V, then
+     * for every topic the number of words with probability at least
+     * minSavedProb, these words in increasing order (ints) and their
+     * probabilities (floats)
+     */
+    public void savePhi(String filename) throws IOException
+    {
+        BinaryOutput out = new BinaryOutput(filename);
+        try {
+            out.putInt(K);
+            out.putInt(V);
+            int[] words = new int[V];
+            for (int k = 0; k < K; k++) {
+                int n = 0;
+                for (int w = 0; w < V; w++) {
+                    if (phi(k, w) >= minSavedProb) {
+                        words[n++] = w;
+                    }
+                }
+                out.putInt(n);
+                out.putInts(words, 0, n);
+                for (int i = 0; i < n; i++) {
+                    out.putFloat((float) phi(k, words[i]));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Mean Hellinger distance between the true topics and the topics of an
+     * estimated model, phi = (nw + beta) / (nwsum + V * beta). Topics are
+     * matched by label with labelsPerDoc > 0, and greedily by distance
+     * otherwise. 0 is perfect recovery, 1 is disjoint topics.
+     */
+    public double recoveryError(Model model)
+    {
+        if (model.K != K) {
+            throw new IllegalArgumentException("The model has " + model.K + " topics instead of " + K);
+        }
+        FrozenPhi estimated = new FrozenPhi(model);
+
+        // square roots of both distributions, over the true vocabulary
+        double[][] rootTrue = new double[K][V];
+        double[][] rootEst = new double[K][V];
+        for (int w = 0; w < V; w++) {
+            int id = model.data.localDict.contains("w" + w) ? model.data.localDict.getID("w" + w) : -1;
+            for (int k = 0; k < K; k++) {
+                rootTrue[k][w] = Math.sqrt(phi(k, w));
+                rootEst[k][w] = id >= 0 ? Math.sqrt(estimated.row(id)[k]) : 0.0;
+            }
+        }
+
+        double total = 0;
+        if (labelsPerDoc > 0) {
+            for (int k = 0; k < K; k++) {
+                total += hellinger(rootTrue[k], rootEst[k]);
+            }
+            return total / K;
+        }
+
+        List<double[]> pairs = new ArrayList<double[]>();
+        for (int k = 0; k < K; k++) {
+            for (int j = 0; j < K; j++) {
+                pairs.add(new double[] { hellinger(rootTrue[k], rootEst[j]), k, j });
+            }
+        }
+        Collections.sort(pairs, new Comparator<double[]>() {
+            public int compare(double[] a, double[] b)
+            {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        boolean[] trueUsed = new boolean[K];
+        boolean[] estUsed = new boolean[K];
+        for (double[] pair : pairs) {
+            int k = (int) pair[1];
+            int j = (int) pair[2];
+            if (!trueUsed[k] && !estUsed[j]) {
+                trueUsed[k] = estUsed[j] = true;
+                total += pair[0];
+            }
+        }
+        return total / K;
+    }
+
+    private double[][] weightRows()
+    {
+        double[][] rows = new double[K][];
+        for (int k = 0; k < K; k++) {
+            rows[k] = tables[k].weights;
+        }
+        return rows;
+    }
+
+    private static double hellinger(double[] rootP, double[] rootQ)
+    {
+        double bc = 0;
+        for (int i = 0; i < rootP.length; i++) {
+            bc += rootP[i] * rootQ[i];
+        }
+        return Math.sqrt(Math.max(0.0, 1.0 - bc));
+    }
+
+    private static Writer writer(String filename) throws IOException
+    {
+        return new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(
+                        new FileOutputStream(filename)), "UTF-8"));
+    }
+
+    /**
+     * Sample x[0..n) ~ Dirichlet(a, ..., a), unnormalized; the draws are
+     * made in log space, so that small a doesn't underflow every entry
+     */
+    static void dirichlet(Rng rng, double a, double[] x, int n)
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            x[i] = logGamma(rng, a);
+            max = Math.max(max, x[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] = Math.exp(x[i] - max);
+        }
+    }
+
+    /**
+     * log of a Gamma(a, 1) draw (Marsaglia and Tsang), with
+     * Gamma(a) = Gamma(a + 1) * U^(1/a) for a < 1
+     */
+    static double logGamma(Rng rng, double a)
+    {
+        if (a < 1.0) {
+            return logGamma(rng, a + 1.0) + Math.log(1.0 - rng.nextDouble()) / a;
+        }
+        double d = a - 1.0 / 3;
+        double c = 1.0 / Math.sqrt(9 * d);
+        while (true) {
+            double x, v;
+            do {
+                x = gaussian(rng);
+                v = 1.0 + c * x;
+            } while (v <= 0);
+            v = v * v * v;
+            double u = 1.0 - rng.nextDouble();
+            if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) {
+                return Math.log(d * v);
+            }
+        }
+    }
+
+    static double gaussian(Rng rng)
+    {
+        return Math.sqrt(-2 * Math.log(1.0 - rng.nextDouble())) * Math.cos(2 * Math.PI * rng.nextDouble());
+    }
+
+    /**
+     * Poisson draw, with a normal approximation for large means; at least 1
+     */
+    static int poisson(Rng rng, double mean)
+    {
+        if (mean < 30) {
+            double limit = Math.exp(-mean);
+            double p = rng.nextDouble();
+            int n = 0;
+            while (p > limit) {
+                p *= rng.nextDouble();
+                n++;
+            }
+            return Math.max(1, n);
+        }
+        return Math.max(1, (int) Math.round(mean + Math.sqrt(mean) * gaussian(rng)));
+    }
+}
@@ -0,0 +1,43 @@
+package jgibblda;
+
+/**
+ * Document-topic counts stored as one int[K] row per document
+ */
+public class DenseDocTopicCounts extends DocTopicCounts
+{
+    private final int[][] nd;
+
+    public DenseDocTopicCounts(int M, int K)
+    {
+        super(M, K);
+        nd = new int[M][K];
+    }
+
+    public int get(int m, int k)
+    {
+        return nd[m][k];
+    }
+
+    public void add(int m, int k, int delta)
+    {
+        nd[m][k] += delta;
+    }
+
+    public int nonZeroTopics(int m, int[] topics, int[] counts)
+    {
+        int[] nd_m = nd[m];
+        int n = 0;
+        for (int k = 0; k < K; k++) {
+            if (nd_m[k] != 0) {
+                topics[n] = k;
+                counts[n++] = nd_m[k];
+            }
+        }
+        return n;
+    }
+
+    public long sizeInBytes()
+    {
+        return 16 + 4L * M + M * (16 + 4L * K);
+    }
+}
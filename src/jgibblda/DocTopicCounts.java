@@ -0,0 +1,78 @@
+package jgibblda;
+
+/**
+ * Document-topic counts nd[m][k] (number of words in document m assigned to
+ * topic k), size M x K. Subclasses differ in memory layout:
+ *
+ *   dense  - one int[K] row per document (the classic int[M][K])
+ *   labels - labeled documents only store counts for their labels, indexed
+ *            by label position, so memory scales with the number of labels
+ *   sparse - sorted (topic, count) arrays of the non-zero counts of each
+ *            document
+ */
+public abstract class DocTopicCounts
+{
+    protected final int M;
+    protected final int K;
+
+    protected DocTopicCounts(int M, int K)
+    {
+        this.M = M;
+        this.K = K;
+    }
+
+    /**
+     * Create document-topic counts with the given layout
+     * @param layout one of "dense", "labels" or "sparse"
+     * @param data documents (and their labels)
+     */
+    public static DocTopicCounts create(String layout, LDADataset data, int M, int K)
+    {
+        if (layout.equalsIgnoreCase("dense")) {
+            return new DenseDocTopicCounts(M, K);
+        }
+        else if (layout.equalsIgnoreCase("labels")) {
+            return new LabelDocTopicCounts(data, M, K);
+        }
+        else if (layout.equalsIgnoreCase("sparse")) {
+            return new SparseDocTopicCounts(M, K);
+        }
+        throw new IllegalArgumentException("Unknown count layout: " + layout);
+    }
+
+    public int getM()
+    {
+        return M;
+    }
+
+    public int getK()
+    {
+        return K;
+    }
+
+    public abstract int get(int m, int k);
+
+    public abstract void add(int m, int k, int delta);
+
+    public void increment(int m, int k)
+    {
+        add(m, k, 1);
+    }
+
+    public void decrement(int m, int k)
+    {
+        add(m, k, -1);
+    }
+
+    /**
+     * Copy the non-zero counts of document m into topics[] and counts[]
+     * (both of size at least K)
+     * @return number of non-zero counts
+     */
+    public abstract int nonZeroTopics(int m, int[] topics, int[] counts);
+
+    /**
+     * Approximate heap size of the counts in bytes
+     */
+    public abstract long sizeInBytes();
+}
@@ -0,0 +1,205 @@
+package jgibblda;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of an estimation, recorded every step iterations: sampling
+ * throughput, time spent sampling, in updateParams() and saving, heap use
+ * and the joint log-likelihood. Every record is appended as one JSON line
+ * to <model>.metrics.jsonl and exposed through JMX as
+ * jgibblda:type=Estimation,name=<model>.
+ */
+public class EstimationMetrics implements EstimationMetricsMBean
+{
+    public static String metricsSuffix = ".metrics.jsonl";
+
+    protected final Model model;
+    protected final long ntokens;
+    protected final int nthreads;
+    protected final int step;
+    protected PrintWriter log = null;
+    protected ObjectName name = null;
+
+    // accumulated since the last record (estimation thread only)
+    protected int iterations = 0;
+    protected long samplingNanos = 0;
+    protected long updateParamsNanos = 0;
+    protected long saveNanos = 0;
+
+    // last record, read by JMX
+    private volatile int lastIteration = 0;
+    private volatile int lastIterations = 0;
+    private volatile double lastTokensPerSecond = 0;
+    private volatile double lastSamplingMillis = 0;
+    private volatile double lastUpdateParamsMillis = 0;
+    private volatile double lastSaveMillis = 0;
+    private volatile double lastLogLikelihood = Double.NaN;
+    private volatile double lastLogLikelihoodMillis = 0;
+    private volatile long lastHeapUsedBytes = 0;
+
+    /**
+     * @param ntokens number of tokens sampled per iteration
+     * @param nthreads number of sampling threads
+     * @param step number of iterations between records
+     */
+    public EstimationMetrics(Model model, long ntokens, int nthreads, int step) throws IOException
+    {
+        this.model = model;
+        this.ntokens = ntokens;
+        this.nthreads = nthreads;
+        this.step = step;
+
+        // appended to, so that the log of -estc continues the previous one
+        String filename = model.dir + File.separator + model.modelName + metricsSuffix;
+        log = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename, true), "UTF-8"));
+        System.out.println("Metrics are logged to " + filename + " every " + step + " iteration(s)");
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("jgibblda:type=Estimation,name=" + ObjectName.quote(model.modelName));
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            System.out.println("Metrics are not exposed through JMX: " + e.getMessage());
+            name = null;
+        }
+    }
+
+    public void addSampling(long nanos)
+    {
+        samplingNanos += nanos;
+    }
+
+    public void addUpdateParams(long nanos)
+    {
+        updateParamsNanos += nanos;
+    }
+
+    public void addSave(long nanos)
+    {
+        saveNanos += nanos;
+    }
+
+    /**
+     * End of an iteration, recorded if it is a multiple of step
+     */
+    public void endIteration(int iteration)
+    {
+        iterations++;
+        if (iteration % step == 0) {
+            record(iteration);
+        }
+    }
+
+    /**
+     * Record what was accumulated since the last record, and stop exposing
+     * the metrics. If the last iteration was already recorded, the final
+     * save gets a record of its own, without the log-likelihood, which
+     * hasn't changed since.
+     */
+    public void close(int iteration)
+    {
+        if (iterations > 0) {
+            record(iteration);
+        } else if (saveNanos > 0) {
+            lastSaveMillis = saveNanos / 1e6;
+            log.format(Locale.ROOT, "{\"time\":%d,\"iteration\":%d,\"final\":true,\"saveMs\":%.3f}%n",
+                    System.currentTimeMillis(), iteration, lastSaveMillis);
+            saveNanos = 0;
+        }
+        log.close();
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (Exception e) {
+                // already gone
+            }
+        }
+    }
+
+    protected void record(int iteration)
+    {
+        long start = System.nanoTime();
+        double ll = model.logLikelihood();
+        double llMillis = (System.nanoTime() - start) / 1e6;
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        double tokensPerSecond = samplingNanos > 0 ? (double) ntokens * iterations / (samplingNanos / 1e9) : 0;
+
+        lastIteration = iteration;
+        lastIterations = iterations;
+        lastTokensPerSecond = tokensPerSecond;
+        lastSamplingMillis = samplingNanos / 1e6;
+        lastUpdateParamsMillis = updateParamsNanos / 1e6;
+        lastSaveMillis = saveNanos / 1e6;
+        lastLogLikelihood = ll;
+        lastLogLikelihoodMillis = llMillis;
+        lastHeapUsedBytes = heap;
+
+        log.format(Locale.ROOT, "{\"time\":%d,\"iteration\":%d,\"iterations\":%d,\"tokens\":%d,\"threads\":%d,"
+                + "\"tokensPerSecond\":%.1f,\"samplingMs\":%.3f,\"updateParamsMs\":%.3f,\"saveMs\":%.3f,"
+                + "\"logLikelihood\":%.6e,\"logLikelihoodMs\":%.3f,\"heapUsedBytes\":%d}%n",
+                System.currentTimeMillis(), iteration, iterations, ntokens, nthreads,
+                tokensPerSecond, lastSamplingMillis, lastUpdateParamsMillis, lastSaveMillis,
+                ll, llMillis, heap);
+        log.flush();
+
+        iterations = 0;
+        samplingNanos = 0;
+        updateParamsNanos = 0;
+        saveNanos = 0;
+    }
+
+    public int getIteration()
+    {
+        return lastIteration;
+    }
+
+    public int getIterations()
+    {
+        return lastIterations;
+    }
+
+    public double getTokensPerSecond()
+    {
+        return lastTokensPerSecond;
+    }
+
+    public double getSamplingMillis()
+    {
+        return lastSamplingMillis;
+    }
+
+    public double getUpdateParamsMillis()
+    {
+        return lastUpdateParamsMillis;
+    }
+
+    public double getSaveMillis()
+    {
+        return lastSaveMillis;
+    }
+
+    public double getLogLikelihood()
+    {
+        return lastLogLikelihood;
+    }
+
+    public double getLogLikelihoodMillis()
+    {
+        return lastLogLikelihoodMillis;
+    }
+
+    public long getHeapUsedBytes()
+    {
+        return lastHeapUsedBytes;
+    }
+}
@@ -0,0 +1,26 @@
+package jgibblda;
+
+/**
+ * JMX view of EstimationMetrics: the values of the last record, where the
+ * timings are totals over the iterations since the previous record
+ */
+public interface EstimationMetricsMBean
+{
+    int getIteration();
+
+    int getIterations();
+
+    double getTokensPerSecond();
+
+    double getSamplingMillis();
+
+    double getUpdateParamsMillis();
+
+    double getSaveMillis();
+
+    double getLogLikelihood();
+
+    double getLogLikelihoodMillis();
+
+    long getHeapUsedBytes();
+}
@@ -30,6 +30,13 @@ package jgibblda;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class Estimator
 {
@@ -37,6 +44,21 @@ public class Estimator
     protected Model trnModel;
     LDACmdOption option;
 
+    // sampler for the single-threaded path
+    protected Sampler sampler;
+
+    // workers for approximate distributed sampling (null if single-threaded)
+    protected SamplingWorker[] workers = null;
+    protected ExecutorService executor = null;
+
+    // workers whose documents contain word w: wordWorkers[wordWorkersStart[w] .. wordWorkersStart[w + 1])
+    protected int[] wordWorkersStart = null;
+    protected int[] wordWorkers = null;
+    protected boolean[] wordChanged = null; // whether the last merge changed a worker copy of word w
+
+    // background writer of periodic checkpoints (null if -savestep is 0)
+    protected CheckpointWriter checkpointWriter = null;
+
     public Estimator(LDACmdOption option) throws FileNotFoundException, IOException
     {
         this.option = option;
@@ -49,97 +71,301 @@ public class Estimator
         else if (option.estc){
             trnModel.init(false);
         }
+
+        if (option.saveStep > 0) {
+            checkpointWriter = new CheckpointWriter(trnModel, option.saveKeep);
+        }
+
+        if (option.nthreads > 1) {
+            initWorkers(option.nthreads);
+        } else {
+            // stream 0 is used by Model.init()
+            Rng rng = Rng.create(trnModel.rngName, trnModel.seed, 1);
+            sampler = Sampler.create(option.sampler, trnModel, trnModel.nw, trnModel.nwsum, rng);
+        }
     }
 
-    public void estimate()
+    /**
+     * Split the documents into contiguous ranges with roughly the same
+     * number of tokens and create one worker per range
+     */
+    protected void initWorkers(int nthreads)
     {
-        System.out.println("Sampling " + trnModel.niters + " iterations!");
-        System.out.print("Iteration");
-        for (int startIter = ++trnModel.liter; trnModel.liter <= startIter - 1 + trnModel.niters; trnModel.liter++){
-            System.out.format("%6d", trnModel.liter);
-
-            // for all z_i
-            for (int m = 0; m < trnModel.M; m++){				
-                for (int n = 0; n < trnModel.data.docs.get(m).length; n++){
-                    // z_i = z[m][n]
-                    // sample from p(z_i|z_-i, w)
-                    int topic = sampling(m, n);
-                    trnModel.z[m].set(n, topic);
-                }// end for each word
-            }// end for each document
-
-            if ((trnModel.liter == startIter - 1 + trnModel.niters) ||
-                    (trnModel.liter > trnModel.nburnin && trnModel.liter % trnModel.samplingLag == 0)) {
-                trnModel.updateParams();
+        long ntokens = 0;
+        for (int m = 0; m < trnModel.M; m++) {
+            ntokens += trnModel.data.docLength(m);
+        }
+
+        workers = new SamplingWorker[nthreads];
+        long seen = 0;
+        int mStart = 0;
+        for (int t = 0, m = 0; t < nthreads; t++) {
+            long target = ntokens * (t + 1) / nthreads;
+            while (m < trnModel.M && (seen < target || t == nthreads - 1)) {
+                seen += trnModel.data.docLength(m);
+                m++;
             }
+            // stream 0 is used by Model.init()
+            Rng rng = Rng.create(trnModel.rngName, trnModel.seed, t + 1);
+            workers[t] = new SamplingWorker(trnModel, option.sampler, rng, mStart, m);
+            mStart = m;
+        }
 
-            System.out.print("\b\b\b\b\b\b");
-        }// end iterations
-        trnModel.liter--;
+        wordWorkersStart = new int[trnModel.V + 1];
+        for (SamplingWorker worker : workers) {
+            for (int w : worker.words) {
+                wordWorkersStart[w + 1]++;
+            }
+        }
+        for (int w = 0; w < trnModel.V; w++) {
+            wordWorkersStart[w + 1] += wordWorkersStart[w];
+        }
+        wordWorkers = new int[wordWorkersStart[trnModel.V]];
+        wordChanged = new boolean[trnModel.V];
+        int[] next = wordWorkersStart.clone();
+        for (int t = 0; t < nthreads; t++) {
+            for (int w : workers[t].words) {
+                wordWorkers[next[w]++] = t;
+            }
+        }
 
-        System.out.println("\nSaving the final model!");
-        trnModel.saveModel();
+        // the pool of the model, also used by updateParams() and logLikelihood()
+        executor = trnModel.parallel().executor();
     }
 
-    /**
-     * Do sampling
-     * @param m document number
-     * @param n word number
-     * @return topic id
-     */
-    public int sampling(int m, int n)
+    public void estimate() throws IOException
     {
-        // remove z_i from the count variable
-        int topic = trnModel.z[m].get(n);
-        int w = trnModel.data.docs.get(m).words[n];
+        long ntokens = 0;
+        for (int m = 0; m < trnModel.M; m++) {
+            ntokens += trnModel.data.docLength(m);
+        }
+        long samplingTime = 0;
+
+        EstimationMetrics metrics = null;
+        if (option.metricsStep > 0) {
+            metrics = new EstimationMetrics(trnModel, ntokens, workers == null ? 1 : workers.length, option.metricsStep);
+        }
+
+        ConvergenceMonitor monitor = null;
+        if (option.stopTol > 0) {
+            monitor = new ConvergenceMonitor(option.stopCriterion, option.stopTol, option.stopStep);
+        }
+        boolean converged = false;
+        int iterations = 0;
 
-        trnModel.nw[w][topic] -= 1;
-        trnModel.nd[m][topic] -= 1;
-        trnModel.nwsum[topic] -= 1;
-        trnModel.ndsum[m] -= 1;
+        System.out.println("Sampling " + trnModel.niters + " iterations!");
+        System.out.print("Iteration");
+        try {
+            for (int startIter = ++trnModel.liter; trnModel.liter <= startIter - 1 + trnModel.niters; trnModel.liter++){
+                System.out.format("%6d", trnModel.liter);
+
+                if (monitor != null) {
+                    monitor.beforeIteration(trnModel.liter, trnModel.z, trnModel.z.length);
+                }
+
+                long iterStart = System.nanoTime();
+                if (workers == null) {
+                    // for all z_i
+                    for (int m = 0; m < trnModel.M; m++){				
+                        sampler.sampleDocument(m);
+                    }// end for each document
+                } else {
+                    invokeAll(Arrays.asList(workers));
+                    mergeCounts();
+                }
+                long iterTime = System.nanoTime() - iterStart;
+                samplingTime += iterTime;
+                iterations++;
+
+                converged = monitor != null && monitor.converged(trnModel.liter, trnModel, trnModel.z, trnModel.z.length);
 
-        double Vbeta = trnModel.V * trnModel.beta;
+                // the last iteration, converged or not, is always a sample
+                long updateStart = System.nanoTime();
+                if (converged || (trnModel.liter == startIter - 1 + trnModel.niters) ||
+                        (trnModel.liter > trnModel.nburnin && trnModel.liter % trnModel.samplingLag == 0)) {
+                    trnModel.updateParams();
+                }
 
-        // get labels for this document
-        int[] labels = trnModel.data.docs.get(m).labels;
+                long saveStart = System.nanoTime();
+                if (checkpointWriter != null && trnModel.liter % option.saveStep == 0 &&
+                        trnModel.liter < startIter - 1 + trnModel.niters && !converged) {
+                    checkpointWriter.snapshot();
+                }
 
-        // determine number of possible topics for this document
-        int K_m = (labels == null) ? trnModel.K : labels.length;
+                if (metrics != null) {
+                    metrics.addSampling(iterTime);
+                    metrics.addUpdateParams(saveStart - updateStart);
+                    metrics.addSave(System.nanoTime() - saveStart);
+                    metrics.endIteration(trnModel.liter);
+                }
 
-        // do multinominal sampling via cumulative method
-        double[] p = trnModel.p;
-        for (int k = 0; k < K_m; k++) {
-            topic = labels == null ? k : labels[k];
+                if (converged) {
+                    System.out.print("\nConverged at iteration " + trnModel.liter + " (" + monitor.lastCheck() + ")");
+                    break;
+                }
 
-            p[k] = (trnModel.nd[m][topic] + trnModel.alpha) *
-                (trnModel.nw[w][topic] + trnModel.beta) /
-                (trnModel.nwsum[topic] + Vbeta);
+                System.out.print("\b\b\b\b\b\b");
+            }// end iterations
+        } finally {
+            if (checkpointWriter != null) {
+                checkpointWriter.close();
+            }
+        }
+        if (!converged) {
+            trnModel.liter--;
         }
+        trnModel.stoppedEarly = converged;
 
-        // cumulate multinomial parameters
-        for (int k = 1; k < K_m; k++) {
-            p[k] += p[k - 1];
+        double seconds = samplingTime / 1e9;
+        System.out.format("\nSampled %d tokens x %d iterations in %.2fs (%.0f tokens/s, %d thread(s))\n",
+                ntokens, iterations, seconds, ntokens * iterations / seconds,
+                workers == null ? 1 : workers.length);
+
+        System.out.println("Saving the final model!");
+        long saveStart = System.nanoTime();
+        trnModel.saveModel();
+        if (metrics != null) {
+            metrics.addSave(System.nanoTime() - saveStart);
+            metrics.close(trnModel.liter);
         }
+    }
 
-        // scaled sample because of unnormalized p[]
-        double u = Math.random() * p[K_m - 1];
+    /**
+     * Run the given tasks on the worker pool and wait for all of them
+     */
+    protected void invokeAll(List<? extends Callable<Void>> tasks)
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
 
-        for (topic = 0; topic < K_m; topic++){
-            if (p[topic] > u) //sample topic w.r.t distribution p
-                break;
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error in sampling worker: " + e.getCause().getMessage(), e.getCause());
         }
+    }
 
-        // map [0, K_m - 1] topic to [0, K - 1] topic according to labels
-        if (labels != null) {
-            topic = labels[topic];
+    /**
+     * Merge the thread-local word-topic counts into the global counts,
+     * i.e., nw += sum_t (nw_t - nw), and send the result back to the
+     * workers. Only the workers whose documents contain a word can have
+     * changed its counts or read them, so every word is merged row by row
+     * over those workers alone, and over the non-zero entries of the rows;
+     * the other copies of the row go stale.
+     * The samplers then rebuild their cached state for the changed words
+     * only, in parallel.
+     */
+    protected void mergeCounts()
+    {
+        final int nthreads = workers.length;
+        List<Callable<Void>> merges = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < nthreads; t++) {
+            final int wStart = (int)((long)trnModel.V * t / nthreads);
+            final int wEnd = (int)((long)trnModel.V * (t + 1) / nthreads);
+            merges.add(new Callable<Void>() {
+                public Void call() {
+                    int K = trnModel.K;
+                    int[] topics = new int[K];
+                    int[] counts = new int[K];
+                    int[] merged = new int[K];
+                    boolean[] touched = new boolean[K];
+                    int[] touchedTopics = new int[K];
+                    for (int w = wStart; w < wEnd; w++) {
+                        int start = wordWorkersStart[w], end = wordWorkersStart[w + 1];
+                        wordChanged[w] = false;
+                        if (start == end) {
+                            continue;
+                        }
+
+                        // merged = sum_t nw_t - (nworkers - 1) nw, over the
+                        // topics that are non-zero in any of the copies
+                        int ntouched = 0;
+                        int size = trnModel.nw.nonZeroTopics(w, topics, counts);
+                        for (int i = 0; i < size; i++) {
+                            int k = topics[i];
+                            touched[k] = true;
+                            touchedTopics[ntouched++] = k;
+                            merged[k] = -(end - start - 1) * counts[i];
+                        }
+                        for (int i = start; i < end; i++) {
+                            size = workers[wordWorkers[i]].nw.nonZeroTopics(w, topics, counts);
+                            for (int j = 0; j < size; j++) {
+                                int k = topics[j];
+                                if (!touched[k]) {
+                                    touched[k] = true;
+                                    touchedTopics[ntouched++] = k;
+                                    merged[k] = 0;
+                                }
+                                merged[k] += counts[j];
+                            }
+                        }
+
+                        for (int j = 0; j < ntouched; j++) {
+                            int k = touchedTopics[j];
+                            if (trnModel.nw.get(w, k) != merged[k]) {
+                                trnModel.nw.set(w, k, merged[k]);
+                            }
+                        }
+                        for (int i = start; i < end; i++) {
+                            WordTopicCounts nw = workers[wordWorkers[i]].nw;
+                            for (int j = 0; j < ntouched; j++) {
+                                int k = touchedTopics[j];
+                                if (nw.get(w, k) != merged[k]) {
+                                    nw.set(w, k, merged[k]);
+                                    wordChanged[w] = true;
+                                }
+                            }
+                        }
+                        for (int j = 0; j < ntouched; j++) {
+                            touched[touchedTopics[j]] = false;
+                        }
+                    }
+                    return null;
+                }
+            });
         }
+        invokeAll(merges);
 
-        // add newly estimated z_i to count variables
-        trnModel.nw[w][topic] += 1;
-        trnModel.nd[m][topic] += 1;
-        trnModel.nwsum[topic] += 1;
-        trnModel.ndsum[m] += 1;
+        for (int k = 0; k < trnModel.K; k++) {
+            int nwsum_k = trnModel.nwsum[k];
+            for (SamplingWorker worker : workers) {
+                trnModel.nwsum[k] += worker.nwsum[k] - nwsum_k;
+            }
+        }
+        List<Callable<Void>> rebuilds = new ArrayList<Callable<Void>>();
+        for (final SamplingWorker worker : workers) {
+            rebuilds.add(new Callable<Void>() {
+                public Void call() {
+                    System.arraycopy(trnModel.nwsum, 0, worker.nwsum, 0, trnModel.K);
+                    int n = 0;
+                    for (int w : worker.words) {
+                        if (wordChanged[w]) {
+                            worker.changedWords[n++] = w;
+                        }
+                    }
+                    worker.sampler.countsChanged(worker.changedWords, n);
+                    return null;
+                }
+            });
+        }
+        invokeAll(rebuilds);
+    }
 
-        return topic;
+    /**
+     * Do sampling
+     * @param m document number
+     * @param n word number
+     * @return topic id
+     */
+    public int sampling(int m, int n)
+    {
+        return sampler.sampling(m, n);
     }
 }
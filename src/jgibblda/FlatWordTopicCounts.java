@@ -0,0 +1,69 @@
+package jgibblda;
+
+/**
+ * Word-topic counts stored in a single int[], one (optionally padded) row
+ * per word, so that a word's counts are contiguous and no row pointers are
+ * chased.
+ */
+public class FlatWordTopicCounts extends WordTopicCounts
+{
+    private final int stride;
+    private final int[] nw;
+
+    public FlatWordTopicCounts(int V, int K, int align)
+    {
+        super(V, K);
+        stride = stride(K, 4, align);
+        nw = new int[flatSize(V, stride)];
+    }
+
+    private FlatWordTopicCounts(FlatWordTopicCounts other)
+    {
+        super(other.V, other.K);
+        stride = other.stride;
+        nw = other.nw.clone();
+    }
+
+    public int get(int w, int k)
+    {
+        return nw[w * stride + k];
+    }
+
+    public void set(int w, int k, int count)
+    {
+        nw[w * stride + k] = count;
+    }
+
+    public void add(int w, int k, int delta)
+    {
+        nw[w * stride + k] += delta;
+    }
+
+    public void getRow(int w, int[] row)
+    {
+        System.arraycopy(nw, w * stride, row, 0, K);
+    }
+
+    public int nonZeroTopics(int w, int[] topics, int[] counts)
+    {
+        int offset = w * stride;
+        int size = 0;
+        for (int k = 0; k < K; k++) {
+            if (nw[offset + k] != 0) {
+                topics[size] = k;
+                counts[size++] = nw[offset + k];
+            }
+        }
+        return size;
+    }
+
+    public WordTopicCounts copy()
+    {
+        return new FlatWordTopicCounts(this);
+    }
+
+    public long sizeInBytes()
+    {
+        return 16 + 4L * nw.length;
+    }
+}
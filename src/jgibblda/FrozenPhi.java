@@ -0,0 +1,49 @@
+package jgibblda;
+
+/**
+ * Topic-word distributions of a trained model, phi[k][w] = (nw[w][k] +
+ * beta) / (nwsum[k] + V * beta), computed once and stored by word, so that
+ * inference against a fixed model reads one contiguous row per token
+ * instead of recomputing a quotient per topic from the counts.
+ */
+public class FrozenPhi
+{
+    protected final int K;
+    protected final int V;
+    protected final float[][] rows; // rows[w][k] = phi[k][w]
+
+    public FrozenPhi(Model trnModel)
+    {
+        K = trnModel.K;
+        V = trnModel.V;
+
+        double Vbeta = V * trnModel.beta;
+        double[] norm = new double[K];
+        for (int k = 0; k < K; k++) {
+            norm[k] = 1.0 / (trnModel.nwsum[k] + Vbeta);
+        }
+
+        rows = new float[V][K];
+        int[] counts = new int[K];
+        for (int w = 0; w < V; w++) {
+            trnModel.nw.getRow(w, counts);
+            float[] row = rows[w];
+            for (int k = 0; k < K; k++) {
+                row[k] = (float)((counts[k] + trnModel.beta) * norm[k]);
+            }
+        }
+    }
+
+    /**
+     * phi[k][w] for all k; the row must not be modified
+     */
+    public float[] row(int w)
+    {
+        return rows[w];
+    }
+
+    public long sizeInBytes()
+    {
+        return (long) V * (4L * K + 16);
+    }
+}
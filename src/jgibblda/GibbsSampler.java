@@ -0,0 +1,72 @@
+package jgibblda;
+
+/**
+ * Standard collapsed Gibbs sampler, evaluating the full conditional for
+ * every topic (or every label of a labeled document).
+ */
+public class GibbsSampler extends Sampler
+{
+    // temp variables for sampling
+    protected final double[] p;
+
+    public GibbsSampler(Model model, WordTopicCounts nw, int[] nwsum, Rng rng)
+    {
+        super(model, nw, nwsum, rng);
+        p = new double[model.K];
+    }
+
+    public int sampling(int m, int n)
+    {
+        // remove z_i from the count variable
+        int topic = model.z[model.data.docStart(m) + n];
+        int w = model.data.word(m, n);
+
+        nw.decrement(w, topic);
+        model.nd.decrement(m, topic);
+        nwsum[topic] -= 1;
+        model.ndsum[m] -= 1;
+
+        double Vbeta = model.V * model.beta;
+
+        // get labels for this document
+        int[] labels = model.data.labels(m);
+
+        // determine number of possible topics for this document
+        int K_m = (labels == null) ? model.K : labels.length;
+
+        // do multinominal sampling via cumulative method
+        for (int k = 0; k < K_m; k++) {
+            topic = labels == null ? k : labels[k];
+
+            p[k] = (model.nd.get(m, topic) + model.alpha) *
+                (nw.get(w, topic) + model.beta) /
+                (nwsum[topic] + Vbeta);
+        }
+
+        // cumulate multinomial parameters
+        for (int k = 1; k < K_m; k++) {
+            p[k] += p[k - 1];
+        }
+
+        // scaled sample because of unnormalized p[]
+        double u = rng.nextDouble() * p[K_m - 1];
+
+        for (topic = 0; topic < K_m; topic++){
+            if (p[topic] > u) //sample topic w.r.t distribution p
+                break;
+        }
+
+        // map [0, K_m - 1] topic to [0, K - 1] topic according to labels
+        if (labels != null) {
+            topic = labels[topic];
+        }
+
+        // add newly estimated z_i to count variables
+        nw.increment(w, topic);
+        model.nd.increment(m, topic);
+        nwsum[topic] += 1;
+        model.ndsum[m] += 1;
+
+        return topic;
+    }
+}
@@ -0,0 +1,423 @@
+package jgibblda;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Thread-safe inference of theta for single documents against a trained
+ * model, without file I/O. The training counts are only read; every
+ * thread keeps its own scratch space, so a call only allocates the
+ * returned theta. Documents are inferred separately (as with
+ * -infseparately): the word-topic counts of a document are added to the
+ * training counts for that document only.
+ *
+ * The sampler is seeded from the engine seed and the word ids of the
+ * document, so the same document always gets the same theta.
+ *
+ * Besides Gibbs sampling against the training counts (mode "gibbs"), the
+ * engine can infer against a frozen phi computed once from the model:
+ * "phi" samples topics from (nd + alpha) * phi (Gibbs fold-in), and "em"
+ * runs deterministic EM updates of theta. Both ignore the counts of the
+ * document itself in the word-topic distributions, which makes them
+ * cheaper per token at a small cost in accuracy.
+ */
+public class InferenceEngine
+{
+    protected final Model trnModel;
+    protected final Dictionary dict;
+    protected final int K;
+    protected final int V;
+    protected final double alpha;
+    protected final double beta;
+
+    public int niters = 50;     // number of Gibbs sampling iterations per document
+    public int nburnin = 20;    // number of burn-in iterations
+    public int samplingLag = 5; // iterations between samples
+    public long seed = 1;
+    public String rngName = "xoroshiro";
+    public double emTolerance = 1e-5; // EM stops when theta changes less than this (L1)
+
+    protected String mode = "gibbs";
+    protected FrozenPhi phi = null;
+
+    /**
+     * Per-thread scratch space, grown to the longest document seen
+     */
+    protected static class Scratch
+    {
+        int[] words = new int[256]; // word ids of the document
+        int[] local = new int[256]; // index of every word among the distinct words of the document
+        int[] z = new int[256];
+        final int[] nd;             // nd[k]: number of words of the document assigned to topic k
+        final int[] nwsum;          // nwsum[k]: same, added to the training nwsum
+        final double[] p;
+        final double[] theta;       // EM estimate of the previous iteration
+        final TIntIntHashMap wordIndex = new TIntIntHashMap();
+        final TIntIntHashMap nw = new TIntIntHashMap(); // (local * K + k) -> count
+
+        Scratch(int K)
+        {
+            nd = new int[K];
+            nwsum = new int[K];
+            p = new double[K];
+            theta = new double[K];
+        }
+
+        void ensureCapacity(int length)
+        {
+            if (length > words.length) {
+                int size = Math.max(length, 2 * words.length);
+                words = new int[size];
+                local = new int[size];
+                z = new int[size];
+            }
+        }
+    }
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        protected Scratch initialValue()
+        {
+            return new Scratch(K);
+        }
+    };
+
+    /**
+     * @param trnModel a trained model loaded with init(false); it must not
+     * be modified while the engine is used
+     */
+    public InferenceEngine(Model trnModel)
+    {
+        this.trnModel = trnModel;
+        dict = trnModel.data.localDict;
+        K = trnModel.K;
+        V = trnModel.V;
+        alpha = trnModel.alpha;
+        beta = trnModel.beta;
+    }
+
+    /**
+     * Load the trained model given by option.dir and option.modelName
+     * (option.dfile is ignored); option.seed replaces the default seed
+     * unless it is 0
+     */
+    public static InferenceEngine load(LDACmdOption option) throws IOException
+    {
+        String dfile = option.dfile;
+        option.dfile = "";
+        try {
+            Model trnModel = new Model(option);
+            if (!trnModel.init(false)) {
+                throw new IOException("Fail to load model " + option.modelName + " from " + option.dir);
+            }
+            InferenceEngine engine = new InferenceEngine(trnModel);
+            if (option.seed != 0) {
+                engine.seed = option.seed;
+            }
+            engine.rngName = trnModel.rngName;
+            return engine;
+        } finally {
+            option.dfile = dfile;
+        }
+    }
+
+    public int getK()
+    {
+        return K;
+    }
+
+    /**
+     * Set the inference mode: gibbs, phi or em (see above); phi and em
+     * compute the frozen phi the first time
+     */
+    public synchronized void setMode(String mode)
+    {
+        if (!mode.equals("gibbs") && !mode.equals("phi") && !mode.equals("em")) {
+            throw new IllegalArgumentException("Unknown inference mode: " + mode);
+        }
+        if (!mode.equals("gibbs") && phi == null) {
+            phi = new FrozenPhi(trnModel);
+        }
+        this.mode = mode;
+    }
+
+    public String getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Id of a word in the training dictionary, or -1 if unknown
+     */
+    public int wordId(String word)
+    {
+        return dict.contains(word) ? dict.getID(word) : -1;
+    }
+
+    /**
+     * Infer theta for a document in the input data format, i.e., words
+     * separated by spaces, optionally preceded by labels in square brackets
+     */
+    public double[] infer(String doc)
+    {
+        int[] labels = null;
+        if (doc.startsWith("[")) {
+            String[] labelsBoundary = doc.substring(1).split("]", 2);
+            labels = LDADataset.parseLabels(labelsBoundary[0], 0).toArray();
+            doc = labelsBoundary.length > 1 ? labelsBoundary[1].trim() : "";
+        }
+
+        String[] tokens = LDADataset.WHITESPACE.split(doc);
+        int[] ids = new int[tokens.length];
+        int length = 0;
+        for (String token : tokens) {
+            if (!token.trim().equals("")) {
+                ids[length++] = wordId(token);
+            }
+        }
+
+        double[] theta = new double[K];
+        infer(ids, length, labels, theta);
+        return theta;
+    }
+
+    /**
+     * Labels without the topics the model doesn't have, i.e. outside [0,
+     * K), or null if none is left
+     */
+    public int[] knownLabels(int[] labels)
+    {
+        if (labels == null) {
+            return null;
+        }
+        int n = 0;
+        for (int label : labels) {
+            n += label >= 0 && label < K ? 1 : 0;
+        }
+        if (n == labels.length) {
+            return n > 0 ? labels : null;
+        }
+        if (n == 0) {
+            return null;
+        }
+        int[] known = new int[n];
+        n = 0;
+        for (int label : labels) {
+            if (label >= 0 && label < K) {
+                known[n++] = label;
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Infer theta for a document given as word ids of the training
+     * dictionary (unknown words, i.e. ids outside [0, V), are skipped)
+     * @param labels sorted topics the document is restricted to, or null
+     * (labels the model doesn't have are ignored)
+     */
+    public double[] infer(int[] ids, int[] labels)
+    {
+        double[] theta = new double[K];
+        infer(ids, ids.length, labels, theta);
+        return theta;
+    }
+
+    /**
+     * Infer theta for the first length word ids of ids into theta (of size K)
+     * @param labels sorted topics the document is restricted to, or null
+     * (labels the model doesn't have are ignored)
+     */
+    public void infer(int[] ids, int length, int[] labels, double[] theta)
+    {
+        labels = knownLabels(labels);
+        Scratch s = scratch.get();
+        s.ensureCapacity(length);
+        int[] words = s.words;
+        int[] local = s.local;
+        int[] z = s.z;
+        int[] nd = s.nd;
+        int[] nwsum = s.nwsum;
+        double[] p = s.p;
+        TIntIntHashMap nw = s.nw;
+
+        // keep known words and number the distinct ones
+        s.wordIndex.clear();
+        int N = 0;
+        long hash = 0;
+        for (int i = 0; i < length; i++) {
+            int w = ids[i];
+            if (w < 0 || w >= V) {
+                continue;
+            }
+            int j = s.wordIndex.size();
+            if (s.wordIndex.containsKey(w)) {
+                j = s.wordIndex.get(w);
+            } else {
+                s.wordIndex.put(w, j);
+            }
+            words[N] = w;
+            local[N] = j;
+            N++;
+            hash = hash * 31 + w;
+        }
+        if ((long) s.wordIndex.size() * K > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Document has too many distinct words for " + K + " topics");
+        }
+
+        if (mode.equals("em")) {
+            inferEM(s, N, labels, theta);
+            return;
+        }
+
+        int K_m = labels == null ? K : labels.length;
+        Rng rng = Rng.create(rngName, seed ^ (hash * 0x9e3779b97f4a7c15L), 0);
+        boolean foldIn = mode.equals("phi");
+
+        // random initialization
+        Arrays.fill(nd, 0);
+        Arrays.fill(nwsum, 0);
+        nw.clear();
+        for (int n = 0; n < N; n++) {
+            int topic = labels == null ? rng.nextInt(K) : labels[rng.nextInt(K_m)];
+            z[n] = topic;
+            nd[topic]++;
+            nwsum[topic]++;
+            if (!foldIn) {
+                nw.adjustOrPutValue(local[n] * K + topic, 1, 1);
+            }
+        }
+
+        Arrays.fill(theta, 0.0);
+        int numSamples = 0;
+        double Vbeta = V * beta;
+        double Kalpha = K * alpha;
+        WordTopicCounts trnNw = trnModel.nw;
+        int[] trnNwsum = trnModel.nwsum;
+
+        for (int iter = 1; iter <= niters; iter++) {
+            for (int n = 0; n < N; n++) {
+                // remove z_i from the count variables
+                int topic = z[n];
+                int w = words[n];
+                int key = local[n] * K;
+                nd[topic]--;
+
+                // do multinomial sampling via cumulative method
+                double sum = 0.0;
+                if (foldIn) {
+                    float[] phi_w = phi.row(w);
+                    for (int k = 0; k < K_m; k++) {
+                        topic = labels == null ? k : labels[k];
+                        sum += (nd[topic] + alpha) * phi_w[topic];
+                        p[k] = sum;
+                    }
+                } else {
+                    nwsum[topic]--;
+                    nw.adjustValue(key + topic, -1);
+                    for (int k = 0; k < K_m; k++) {
+                        topic = labels == null ? k : labels[k];
+                        sum += (nd[topic] + alpha) *
+                            (trnNw.get(w, topic) + nw.get(key + topic) + beta) /
+                            (trnNwsum[topic] + nwsum[topic] + Vbeta);
+                        p[k] = sum;
+                    }
+                }
+
+                double u = rng.nextDouble() * sum;
+                int k = 0;
+                while (k < K_m - 1 && p[k] <= u) {
+                    k++;
+                }
+                topic = labels == null ? k : labels[k];
+
+                // add newly estimated z_i to count variables
+                z[n] = topic;
+                nd[topic]++;
+                if (!foldIn) {
+                    nwsum[topic]++;
+                    nw.adjustOrPutValue(key + topic, 1, 1);
+                }
+            }
+
+            if (iter == niters || (iter > nburnin && iter % samplingLag == 0)) {
+                for (int k = 0; k < K; k++) {
+                    theta[k] += (nd[k] + alpha) / (N + Kalpha);
+                }
+                numSamples++;
+            }
+        }
+
+        if (numSamples == 0) {
+            // no iterations: theta of the random initialization
+            for (int k = 0; k < K; k++) {
+                theta[k] = (nd[k] + alpha) / (N + Kalpha);
+            }
+            return;
+        }
+
+        for (int k = 0; k < K; k++) {
+            theta[k] /= numSamples;
+        }
+    }
+
+    /**
+     * Deterministic EM against the frozen phi: the responsibilities of the
+     * topics for every distinct word, weighted by its number of occurrences,
+     * give the next theta as (sum + alpha) / (N + K * alpha)
+     */
+    protected void inferEM(Scratch s, int N, int[] labels, double[] theta)
+    {
+        int K_m = labels == null ? K : labels.length;
+        int[] local = s.local;
+        int[] words = s.words;
+        int[] counts = s.z;
+        double[] expected = s.p;
+        double[] prev = s.theta;
+        double Kalpha = K * alpha;
+
+        // number of occurrences of every distinct word; the distinct words are
+        // moved to the front of words (local[n] <= n, so no word is overwritten
+        // before it is read)
+        int distinct = s.wordIndex.size();
+        Arrays.fill(counts, 0, distinct, 0);
+        for (int n = 0; n < N; n++) {
+            counts[local[n]]++;
+            words[local[n]] = words[n];
+        }
+
+        // start with the words spread evenly over the topics of the document
+        Arrays.fill(theta, alpha / (N + Kalpha));
+        for (int k = 0; k < K_m; k++) {
+            theta[labels == null ? k : labels[k]] = ((double) N / K_m + alpha) / (N + Kalpha);
+        }
+
+        for (int iter = 1; iter <= niters; iter++) {
+            Arrays.fill(expected, 0.0);
+            for (int j = 0; j < distinct; j++) {
+                float[] phi_w = phi.row(words[j]);
+                double sum = 0.0;
+                for (int k = 0; k < K_m; k++) {
+                    int topic = labels == null ? k : labels[k];
+                    sum += theta[topic] * phi_w[topic];
+                }
+                double scale = counts[j] / sum;
+                for (int k = 0; k < K_m; k++) {
+                    int topic = labels == null ? k : labels[k];
+                    expected[topic] += theta[topic] * phi_w[topic] * scale;
+                }
+            }
+
+            System.arraycopy(theta, 0, prev, 0, K);
+            double change = 0.0;
+            for (int k = 0; k < K; k++) {
+                theta[k] = (expected[k] + alpha) / (N + Kalpha);
+                change += Math.abs(theta[k] - prev[k]);
+            }
+            if (change < emTolerance) {
+                break;
+            }
+        }
+    }
+}
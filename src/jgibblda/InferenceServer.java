@@ -0,0 +1,616 @@
+package jgibblda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Serves theta inference of a trained model over HTTP on the loopback
+ * interface:
+ *
+ *   POST /infer  - documents in the input data format, either one per line
+ *                  or as JSON {"docs": ["...", ...]} (or {"doc": "..."});
+ *                  answers {"theta": [[...], ...]}, one row per document
+ *   GET  /stats  - number of requests and documents, throughput and
+ *                  latency percentiles over the last requests, as JSON
+ *
+ * Requests are queued and a dispatcher thread takes all the queued ones
+ * (up to maxBatch documents) as one batch, whose documents are spread over
+ * the worker threads. While a batch is sampled, new requests accumulate
+ * for the next one, so batches grow with the load without delaying
+ * requests when the server is idle.
+ */
+public class InferenceServer
+{
+    // number of requests whose latencies are kept for the percentiles
+    public static final int LATENCY_WINDOW = 10000;
+
+    protected final InferenceEngine engine;
+    protected final int nthreads;
+    protected final int maxBatch;
+
+    protected final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(4096);
+    protected HttpServer server;
+    protected ExecutorService handlers;
+    protected ExecutorService workers;
+    protected Thread dispatcher;
+
+    // statistics, guarded by this
+    protected final long startTime = System.nanoTime();
+    protected long numRequests = 0;
+    protected long numDocuments = 0;
+    protected long numBatches = 0;
+    protected final long[] latencies = new long[LATENCY_WINDOW]; // nanoseconds, ring buffer
+    protected final long[] finishTimes = new long[LATENCY_WINDOW];
+
+    /**
+     * Documents of one HTTP request, completed by the dispatcher
+     */
+    protected static class Request
+    {
+        final String[] docs;
+        final double[][] theta;
+        final long arrival = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable error = null;
+
+        Request(String[] docs)
+        {
+            this.docs = docs;
+            theta = new double[docs.length][];
+        }
+    }
+
+    public InferenceServer(InferenceEngine engine, int nthreads, int maxBatch)
+    {
+        if (nthreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + nthreads);
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        }
+        this.engine = engine;
+        this.nthreads = nthreads;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Load the model given by the options and serve it on option.port until
+     * the process is stopped
+     */
+    public static InferenceServer serve(LDACmdOption option) throws IOException
+    {
+        InferenceEngine engine = InferenceEngine.load(option);
+        engine.niters = option.niters;
+        engine.nburnin = option.nburnin;
+        engine.samplingLag = option.samplingLag;
+        engine.setMode(option.infMode);
+
+        InferenceServer server = new InferenceServer(engine, option.nthreads, option.maxBatch);
+        server.start(option.port);
+        System.out.println("Serving " + option.modelName + " on http://localhost:" + server.getPort() + "/infer");
+        return server;
+    }
+
+    public void start(int port) throws IOException
+    {
+        workers = Executors.newFixedThreadPool(nthreads, daemonThreads("inference-worker"));
+        handlers = Executors.newCachedThreadPool(daemonThreads("inference-http"));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/infer", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleInfer(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleStats(exchange);
+            }
+        });
+
+        dispatcher = new Thread(new Runnable() {
+            public void run()
+            {
+                dispatch();
+            }
+        }, "inference-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        server.start();
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        dispatcher.interrupt();
+        workers.shutdown();
+        handlers.shutdown();
+    }
+
+    //---------------------------------------------------------------
+    // HTTP handlers
+    //---------------------------------------------------------------
+
+    protected void handleInfer(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                send(exchange, 405, error("Use POST"));
+                return;
+            }
+
+            String body = readBody(exchange.getRequestBody());
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String[] docs;
+            try {
+                docs = (contentType != null && contentType.contains("json")) || body.trim().startsWith("{")
+                    ? parseJsonDocs(body) : parseLines(body);
+                checkLabels(docs, engine.getK());
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+
+            Request request = new Request(docs);
+            if (docs.length > 0) {
+                if (!queue.offer(request)) {
+                    send(exchange, 503, error("Too many pending requests"));
+                    return;
+                }
+                request.done.await();
+            }
+            if (request.error != null) {
+                send(exchange, 500, error(String.valueOf(request.error.getMessage())));
+                return;
+            }
+
+            StringBuilder json = new StringBuilder(32 + docs.length * engine.getK() * 12);
+            json.append("{\"theta\": [");
+            for (int i = 0; i < docs.length; i++) {
+                json.append(i > 0 ? ", [" : "[");
+                for (int k = 0; k < request.theta[i].length; k++) {
+                    if (k > 0) json.append(", ");
+                    json.append(request.theta[i][k]);
+                }
+                json.append("]");
+            }
+            json.append("]}\n");
+            recordLatency(request, docs.length);
+            send(exchange, 200, json.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, error("Server is stopping"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    protected void handleStats(HttpExchange exchange) throws IOException
+    {
+        try {
+            send(exchange, 200, stats());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static String error(String message)
+    {
+        return "{\"error\": \"" + escape(message) + "\"}\n";
+    }
+
+    //---------------------------------------------------------------
+    // Batching
+    //---------------------------------------------------------------
+
+    /**
+     * Take the queued requests as batches and infer their documents on the
+     * worker threads
+     */
+    protected void dispatch()
+    {
+        List<Request> batch = new ArrayList<Request>();
+        List<Request> next = new ArrayList<Request>();
+        try {
+            while (true) {
+                if (next.isEmpty()) {
+                    batch.add(queue.take());
+                } else {
+                    batch.addAll(next);
+                    next.clear();
+                }
+
+                // add queued requests while the batch has room
+                int size = batch.get(0).docs.length;
+                Request request;
+                while (size < maxBatch && (request = queue.poll()) != null) {
+                    if (size + request.docs.length > maxBatch) {
+                        next.add(request);
+                        break;
+                    }
+                    batch.add(request);
+                    size += request.docs.length;
+                }
+
+                runBatch(batch, size);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    protected void runBatch(List<Request> batch, int size) throws InterruptedException
+    {
+        final Request[] requests = new Request[size];
+        final int[] indices = new int[size];
+        int d = 0;
+        for (Request request : batch) {
+            for (int i = 0; i < request.docs.length; i++) {
+                requests[d] = request;
+                indices[d] = i;
+                d++;
+            }
+        }
+
+        // contiguous ranges of documents, one per worker
+        int nchunks = Math.min(nthreads, size);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < nchunks; t++) {
+            final int start = (int)((long)size * t / nchunks);
+            final int end = (int)((long)size * (t + 1) / nchunks);
+            futures.add(workers.submit(new Runnable() {
+                public void run()
+                {
+                    for (int d = start; d < end; d++) {
+                        Request request = requests[d];
+                        try {
+                            request.theta[indices[d]] = engine.infer(request.docs[indices[d]]);
+                        } catch (RuntimeException e) {
+                            request.error = e;
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // errors are recorded in the requests
+            }
+        }
+
+        synchronized (this) {
+            numBatches++;
+        }
+        for (Request request : batch) {
+            request.done.countDown();
+        }
+    }
+
+    //---------------------------------------------------------------
+    // Statistics
+    //---------------------------------------------------------------
+
+    protected synchronized void recordLatency(Request request, int ndocs)
+    {
+        long now = System.nanoTime();
+        int i = (int)(numRequests % LATENCY_WINDOW);
+        latencies[i] = now - request.arrival;
+        finishTimes[i] = now;
+        numRequests++;
+        numDocuments += ndocs;
+    }
+
+    /**
+     * Statistics as JSON: totals since the start, and throughput and latency
+     * percentiles (in milliseconds) over the last LATENCY_WINDOW requests
+     */
+    public synchronized String stats()
+    {
+        long now = System.nanoTime();
+        int window = (int) Math.min(numRequests, LATENCY_WINDOW);
+        long[] sorted = Arrays.copyOf(latencies, window);
+        Arrays.sort(sorted);
+
+        // the window starts at the oldest request kept
+        double windowSeconds = 0;
+        if (window > 0) {
+            long oldest = finishTimes[numRequests > LATENCY_WINDOW ? (int)(numRequests % LATENCY_WINDOW) : 0];
+            windowSeconds = (now - oldest) / 1e9;
+        }
+        double uptime = (now - startTime) / 1e9;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"requests\": ").append(numRequests);
+        json.append(", \"documents\": ").append(numDocuments);
+        json.append(", \"batches\": ").append(numBatches);
+        json.append(", \"uptime_s\": ").append(String.format(Locale.ROOT, "%.3f", uptime));
+        json.append(", \"documents_per_s\": ").append(String.format(Locale.ROOT, "%.1f", uptime > 0 ? numDocuments / uptime : 0));
+        json.append(", \"window_requests\": ").append(window);
+        json.append(", \"window_requests_per_s\": ").append(String.format(Locale.ROOT, "%.1f", windowSeconds > 0 ? window / windowSeconds : 0));
+        json.append(", \"latency_ms\": {");
+        json.append("\"p50\": ").append(percentile(sorted, 0.50));
+        json.append(", \"p90\": ").append(percentile(sorted, 0.90));
+        json.append(", \"p99\": ").append(percentile(sorted, 0.99));
+        json.append(", \"max\": ").append(percentile(sorted, 1.0));
+        json.append("}}\n");
+        return json.toString();
+    }
+
+    private static String percentile(long[] sorted, double q)
+    {
+        if (sorted.length == 0) {
+            return "0";
+        }
+        int i = (int) Math.ceil(q * sorted.length) - 1;
+        return String.format(Locale.ROOT, "%.3f", sorted[Math.max(0, i)] / 1e6);
+    }
+
+    //---------------------------------------------------------------
+    // Request parsing
+    //---------------------------------------------------------------
+
+    /**
+     * Documents of a plain text body, one per non-empty line
+     */
+    static String[] parseLines(String body)
+    {
+        List<String> docs = new ArrayList<String>();
+        for (String line : body.split("\n")) {
+            if (!line.trim().equals("")) {
+                docs.add(line.trim());
+            }
+        }
+        return docs.toArray(new String[docs.size()]);
+    }
+
+    /**
+     * Check that the labels of every document are topics of the model
+     * @throws IllegalArgumentException on the first label outside [0, K)
+     */
+    static void checkLabels(String[] docs, int K)
+    {
+        for (int i = 0; i < docs.length; i++) {
+            if (!docs[i].startsWith("[")) {
+                continue;
+            }
+            TIntArrayList labels = LDADataset.parseLabels(docs[i].substring(1).split("]", 2)[0], i);
+            for (int j = 0; j < labels.size(); j++) {
+                int label = labels.get(j);
+                if (label < 0 || label >= K) {
+                    throw new IllegalArgumentException("Label " + label + " of document " + i
+                            + " is not a topic in [0, " + K + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Documents of a JSON object with a "docs" array of strings or a "doc"
+     * string; other members are ignored
+     */
+    static String[] parseJsonDocs(String body)
+    {
+        JsonReader reader = new JsonReader(body);
+        List<String> docs = new ArrayList<String>();
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                String key = reader.readString();
+                reader.expect(':');
+                if (key.equals("docs")) {
+                    reader.expect('[');
+                    if (!reader.consume(']')) {
+                        do {
+                            docs.add(reader.readString());
+                        } while (reader.consume(','));
+                        reader.expect(']');
+                    }
+                } else if (key.equals("doc")) {
+                    docs.add(reader.readString());
+                } else {
+                    reader.skipValue();
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        return docs.toArray(new String[docs.size()]);
+    }
+
+    static String escape(String s)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Minimal reader for the JSON accepted by /infer
+     */
+    static class JsonReader
+    {
+        private final String s;
+        private int pos = 0;
+
+        JsonReader(String s)
+        {
+            this.s = s;
+        }
+
+        private void skipWhitespace()
+        {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        boolean consume(char c)
+        {
+            skipWhitespace();
+            if (pos < s.length() && s.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c)
+        {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("Invalid JSON: expected '" + c + "' at offset " + pos);
+            }
+        }
+
+        String readString()
+        {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= s.length()) {
+                    break;
+                }
+                c = s.charAt(pos++);
+                switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > s.length()) {
+                            throw new IllegalArgumentException("Invalid JSON: bad escape at offset " + pos);
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid JSON: bad escape at offset " + pos);
+                        }
+                        pos += 4;
+                        break;
+                    default: sb.append(c);
+                }
+            }
+            throw new IllegalArgumentException("Invalid JSON: unterminated string");
+        }
+
+        void skipValue()
+        {
+            skipWhitespace();
+            if (pos >= s.length()) {
+                throw new IllegalArgumentException("Invalid JSON: unexpected end");
+            }
+            char c = s.charAt(pos);
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                if (consume(close)) {
+                    return;
+                }
+                do {
+                    if (c == '{') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (consume(','));
+                expect(close);
+            } else {
+                // number, true, false or null
+                int start = pos;
+                while (pos < s.length() && "{}[],: \t\r\n".indexOf(s.charAt(pos)) < 0) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw new IllegalArgumentException("Invalid JSON: unexpected '" + c + "' at offset " + pos);
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name)
+    {
+        return new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, name + "-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,304 @@
+package jgibblda;
+
+import java.util.concurrent.Callable;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Samples a contiguous range of new documents for inference against the
+ * training counts, which are only read. With separate inference, all the
+ * counts a worker updates belong to its own documents, so workers run
+ * concurrently; Model.nw and Model.nwsum of the new model are then left
+ * alone and recounted from z by the Inferencer when they are needed.
+ *
+ * With a frozen phi (-infmode phi), topics are sampled from
+ * (nd + alpha) * phi, and documents share no counts at all.
+ */
+class InferenceWorker implements Callable<Void>
+{
+    // documents sampled by this worker, [mStart, mEnd)
+    protected final int mStart;
+    protected final int mEnd;
+
+    protected final Model trnModel;
+    protected final Model newModel;
+    protected final boolean separately;
+    protected final Rng rng;
+    protected final double[] p;
+
+    // alias tables over the training counts (alias sampler only), built
+    // before sampling starts and only read by the workers
+    protected final AliasTable[] wordTables;
+    protected final AliasTable smoothingTable;
+
+    // frozen phi of the training model (-infmode phi only)
+    protected final FrozenPhi phi;
+
+    public InferenceWorker(Model trnModel, Model newModel, boolean separately, Rng rng,
+            AliasTable[] wordTables, AliasTable smoothingTable, FrozenPhi phi, int mStart, int mEnd)
+    {
+        this.trnModel = trnModel;
+        this.newModel = newModel;
+        this.separately = separately;
+        this.rng = rng;
+        this.wordTables = wordTables;
+        this.smoothingTable = smoothingTable;
+        this.phi = phi;
+        this.mStart = mStart;
+        this.mEnd = mEnd;
+
+        p = new double[newModel.K];
+    }
+
+    public Void call()
+    {
+        for (int m = mStart; m < mEnd; m++) {
+            int start = newModel.data.docStart(m);
+            for (int n = 0; n < newModel.data.docLength(m); n++){
+                // sample from p(z_i|z_-1,w)
+                int topic;
+                if (phi != null) {
+                    topic = foldInSampling(m, n);
+                } else if (wordTables != null) {
+                    topic = infAliasSampling(m, n);
+                } else {
+                    topic = infSampling(m, n);
+                }
+                newModel.z[start + n] = topic;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * do sampling for inference
+     * m: document number
+     * n: word number?
+     */
+    protected int infSampling(int m, int n)
+    {
+        // remove z_i from the count variables
+        int topic = newModel.z[newModel.data.docStart(m) + n];
+        int _w = newModel.data.word(m, n);
+        int w = newModel.data.lid2gid.get(_w);
+
+        newModel.nd.decrement(m, topic);
+        newModel.ndsum[m] -= 1;
+
+        // counts of word _w in document m are at key + topic
+        TLongIntHashMap nw_inf_m = null;
+        long key = (long) _w * newModel.K;
+        if (separately) {
+            decrement(nw_inf_m = newModel.nw_inf[m], key + topic);
+        } else {
+            newModel.nw.decrement(_w, topic);
+            newModel.nwsum[topic] -= 1;
+        }
+
+        double Vbeta = trnModel.V * newModel.beta;
+
+        // get labels for this document
+        int[] labels = newModel.data.labels(m);
+
+        // determine number of possible topics for this document
+        int K_m = (labels == null) ? newModel.K : labels.length;
+
+        // do multinomial sampling via cumulative method
+        for (int k = 0; k < K_m; k++) {
+            topic = labels == null ? k : labels[k];
+
+            // with separate inference, the topic totals of the document are nd
+            int nd_k = newModel.nd.get(m, topic);
+            int nw_k, nwsum_k;
+            if (separately) {
+                nw_k = nw_inf_m.get(key + topic);
+                nwsum_k = nd_k;
+            } else {
+                nw_k = newModel.nw.get(_w, topic);
+                nwsum_k = newModel.nwsum[topic];
+            }
+
+            p[k] = (nd_k + newModel.alpha) *
+                (trnModel.nw.get(w, topic) + nw_k + newModel.beta) /
+                (trnModel.nwsum[topic] + nwsum_k + Vbeta);
+        }
+
+        // cumulate multinomial parameters
+        for (int k = 1; k < K_m; k++){
+            p[k] += p[k - 1];
+        }
+
+        // scaled sample because of unnormalized p[]
+        double u = rng.nextDouble() * p[K_m - 1];
+
+        for (topic = 0; topic < K_m; topic++){
+            if (p[topic] > u)
+                break;
+        }
+
+        // map [0, K_m - 1] topic to [0, K - 1] topic according to labels
+        if (labels != null) {
+            topic = labels[topic];
+        }
+
+        // add newly estimated z_i to count variables
+        newModel.nd.increment(m, topic);
+        newModel.ndsum[m] += 1;
+
+        if (separately) {
+            nw_inf_m.adjustOrPutValue(key + topic, 1, 1);
+        } else {
+            newModel.nw.increment(_w, topic);
+            newModel.nwsum[topic] += 1;
+        }
+
+        return topic;
+    }
+
+    /**
+     * do sampling for inference against the frozen phi
+     * m: document number
+     * n: word number
+     */
+    protected int foldInSampling(int m, int n)
+    {
+        // remove z_i from the count variables
+        int topic = newModel.z[newModel.data.docStart(m) + n];
+        int w = newModel.data.lid2gid.get(newModel.data.word(m, n));
+
+        newModel.nd.decrement(m, topic);
+        newModel.ndsum[m] -= 1;
+
+        int[] labels = newModel.data.labels(m);
+        int K_m = (labels == null) ? newModel.K : labels.length;
+
+        // do multinomial sampling via cumulative method
+        float[] phi_w = phi.row(w);
+        double sum = 0.0;
+        for (int k = 0; k < K_m; k++) {
+            topic = labels == null ? k : labels[k];
+            sum += (newModel.nd.get(m, topic) + newModel.alpha) * phi_w[topic];
+            p[k] = sum;
+        }
+
+        double u = rng.nextDouble() * sum;
+        int k = 0;
+        while (k < K_m - 1 && p[k] <= u) {
+            k++;
+        }
+        topic = labels == null ? k : labels[k];
+
+        // add newly estimated z_i to count variables
+        newModel.nd.increment(m, topic);
+        newModel.ndsum[m] += 1;
+
+        return topic;
+    }
+
+    /**
+     * do Metropolis-Hastings sampling for inference with alias-table word
+     * proposals built from the training counts and document proposals
+     * m: document number
+     * n: word number
+     */
+    protected int infAliasSampling(int m, int n)
+    {
+        // labeled documents: dense sampling over the labels
+        int[] labels = newModel.data.labels(m);
+        if (labels != null) {
+            return infSampling(m, n);
+        }
+
+        // remove z_i from the count variables
+        int oldTopic = newModel.z[newModel.data.docStart(m) + n];
+        int _w = newModel.data.word(m, n);
+        int w = newModel.data.lid2gid.get(_w);
+
+        newModel.nd.decrement(m, oldTopic);
+        newModel.ndsum[m] -= 1;
+
+        TLongIntHashMap nw_inf_m = null;
+        long key = (long) _w * newModel.K;
+        if (separately) {
+            decrement(nw_inf_m = newModel.nw_inf[m], key + oldTopic);
+        } else {
+            newModel.nw.decrement(_w, oldTopic);
+            newModel.nwsum[oldTopic] -= 1;
+        }
+
+        double Vbeta = trnModel.V * newModel.beta;
+
+        AliasTable wordTable = wordTables[w];
+        int docLength = newModel.data.docLength(m);
+        double alpha = newModel.alpha;
+
+        int s = oldTopic;
+        double p_s = infProbability(m, _w, w, s, nw_inf_m, key, Vbeta);
+        for (int step = 0; step < AliasSampler.MH_STEPS; step++) {
+            int t;
+            double q_s, q_t;
+            if (step % 2 == 0) {
+                // word proposal
+                t = AliasSampler.proposeWord(wordTable, smoothingTable, rng);
+                q_s = wordTable.weight(s) + smoothingTable.weight(s);
+                q_t = wordTable.weight(t) + smoothingTable.weight(t);
+            } else {
+                // doc proposal: topic of a random other token, or a uniform topic
+                t = AliasSampler.proposeDoc(newModel.z, newModel.data.docStart(m), docLength, n,
+                        newModel.K, alpha, rng);
+                q_s = newModel.nd.get(m, s) + alpha;
+                q_t = newModel.nd.get(m, t) + alpha;
+            }
+            if (t == s) continue;
+
+            double p_t = infProbability(m, _w, w, t, nw_inf_m, key, Vbeta);
+            double accept = p_t * q_s / (p_s * q_t);
+            if (accept >= 1.0 || rng.nextDouble() < accept) {
+                s = t;
+                p_s = p_t;
+            }
+        }
+
+        // add newly estimated z_i to count variables
+        newModel.nd.increment(m, s);
+        newModel.ndsum[m] += 1;
+
+        if (separately) {
+            nw_inf_m.adjustOrPutValue(key + s, 1, 1);
+        } else {
+            newModel.nw.increment(_w, s);
+            newModel.nwsum[s] += 1;
+        }
+
+        return s;
+    }
+
+    /**
+     * unnormalized p(z_i = topic|z_-i, w) for inference
+     */
+    private double infProbability(int m, int _w, int w, int topic, TLongIntHashMap nw_inf_m, long key, double Vbeta)
+    {
+        int nw_k, nwsum_k;
+        if (separately) {
+            nw_k = nw_inf_m.get(key + topic);
+            nwsum_k = newModel.nd.get(m, topic);
+        } else {
+            nw_k = newModel.nw.get(_w, topic);
+            nwsum_k = newModel.nwsum[topic];
+        }
+
+        return (newModel.nd.get(m, topic) + newModel.alpha) *
+            (trnModel.nw.get(w, topic) + nw_k + newModel.beta) /
+            (trnModel.nwsum[topic] + nwsum_k + Vbeta);
+    }
+
+    /**
+     * Decrement a count of a document, dropping it when it reaches zero
+     */
+    private static void decrement(TLongIntHashMap nw_inf_m, long key)
+    {
+        if (nw_inf_m.adjustOrPutValue(key, -1, -1) == 0) {
+            nw_inf_m.remove(key);
+        }
+    }
+}
@@ -30,6 +30,12 @@ package jgibblda;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Inferencer
 {
@@ -40,6 +46,24 @@ public class Inferencer
 
     private Model newModel;
 
+    // alias tables over the training counts (alias sampler only)
+    private AliasTable[] wordTables = null;
+    private AliasTable smoothingTable = null;
+    private int[] scratch = null;
+
+    // frozen phi of the training model (-infmode phi only)
+    private FrozenPhi phi = null;
+
+    // workers over contiguous ranges of the new documents; more than one
+    // only for separate inference
+    private InferenceWorker[] workers;
+    private ExecutorService executor = null;
+
+    // z as of the last time newModel.nw and newModel.nwsum were counted
+    // (separate or frozen phi inference only, where the workers don't
+    // update them)
+    private int[] countedZ = null;
+
     //-----------------------------------------------------
     // Init method
     //-----------------------------------------------------
@@ -51,6 +75,28 @@ public class Inferencer
         trnModel.init(false);
 
         globalDict = trnModel.data.localDict;
+
+        if (option.infMode.equals("phi")) {
+            if (option.sampler.equalsIgnoreCase("alias")) {
+                throw new IllegalArgumentException("The alias sampler doesn't apply to -infmode phi");
+            }
+            phi = new FrozenPhi(trnModel);
+        }
+        else if (!option.infMode.equals("gibbs")) {
+            throw new IllegalArgumentException("Inference mode not supported by -inf: " + option.infMode);
+        }
+
+        if (option.sampler.equalsIgnoreCase("alias")) {
+            // training counts are fixed, so the tables never become stale
+            wordTables = new AliasTable[trnModel.V];
+            smoothingTable = new AliasTable(trnModel.K, false);
+            scratch = new int[trnModel.K];
+            AliasSampler.buildSmoothingTable(smoothingTable, trnModel.nwsum, trnModel.beta,
+                    trnModel.V * trnModel.beta, scratch);
+        }
+        else if (!option.sampler.equalsIgnoreCase("dense") && !option.sampler.equalsIgnoreCase("labeled")) {
+            throw new IllegalArgumentException("Sampler not supported for inference: " + option.sampler);
+        }
     }
 
     //inference new model ~ getting data from a specified dataset
@@ -60,33 +106,86 @@ public class Inferencer
         newModel.init(true);
         newModel.initInf();
 
+        if (wordTables != null) {
+            // build the tables of all the words up front, so that workers only read them
+            int[] topics = new int[trnModel.K];
+            for (int _w = 0; _w < newModel.V; _w++) {
+                if (newModel.data.lid2gid.containsKey(_w)) {
+                    int w = newModel.data.lid2gid.get(_w);
+                    if (wordTables[w] == null) {
+                        AliasSampler.buildWordTable(wordTables, trnModel.nw, w, trnModel.nwsum,
+                                trnModel.V * trnModel.beta, topics, scratch, null);
+                    }
+                }
+            }
+        }
+
+        // documents only share counts when they are not inferred separately
+        // and not against a frozen phi
+        boolean independent = option.infSeparately || phi != null;
+        initWorkers(independent ? Math.max(1, option.nthreads) : 1);
+        if (independent) {
+            countedZ = newModel.z.clone();
+        }
+
+        // the log-likelihood of the new documents alone says little about
+        // their convergence, so inference always stops on topic changes
+        ConvergenceMonitor monitor = null;
+        if (option.stopTol > 0) {
+            monitor = new ConvergenceMonitor("changes", option.stopTol, option.stopStep);
+        }
+        boolean converged = false;
+
         System.out.println("Sampling " + newModel.niters + " iterations for inference!");		
         System.out.print("Iteration");
-        for (newModel.liter = 1; newModel.liter <= newModel.niters; newModel.liter++){
-            System.out.format("%6d", newModel.liter);
-
-            // for all newz_i
-            for (int m = 0; m < newModel.M; ++m){
-                for (int n = 0; n < newModel.data.docs.get(m).length; n++){
-                    // sample from p(z_i|z_-1,w)
-                    int topic = infSampling(m, n);
-                    newModel.z[m].set(n, topic);
+        try {
+            for (newModel.liter = 1; newModel.liter <= newModel.niters; newModel.liter++){
+                System.out.format("%6d", newModel.liter);
+
+                if (monitor != null) {
+                    monitor.beforeIteration(newModel.liter, newModel.z, newModel.z.length);
                 }
-            }//end foreach new doc
 
-            if ((newModel.liter == newModel.niters) ||
-                    (newModel.liter > newModel.nburnin && newModel.liter % newModel.samplingLag == 0)) {
-                newModel.updateParams(trnModel);
-            }
+                // for all newz_i
+                if (executor == null) {
+                    workers[0].call();
+                } else {
+                    invokeAll(workers);
+                }
+
+                converged = monitor != null && monitor.converged(newModel.liter, newModel, newModel.z, newModel.z.length);
+
+                if (converged || (newModel.liter == newModel.niters) ||
+                        (newModel.liter > newModel.nburnin && newModel.liter % newModel.samplingLag == 0)) {
+                    if (countedZ != null) {
+                        recountWordTopics();
+                    }
+                    newModel.updateParams(trnModel);
+                }
 
-            System.out.print("\b\b\b\b\b\b");
-        }// end iterations
-        newModel.liter--;
+                if (converged) {
+                    System.out.print("\nConverged at iteration " + newModel.liter + " (" + monitor.lastCheck() + ")");
+                    break;
+                }
+
+                System.out.print("\b\b\b\b\b\b");
+            }// end iterations
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        if (!converged) {
+            newModel.liter--;
+        }
+        newModel.stoppedEarly = converged;
 
         System.out.println("\nSaving the inference outputs!");
         String outputPrefix = newModel.dfile;
         if (outputPrefix.endsWith(".gz")) {
             outputPrefix = outputPrefix.substring(0, outputPrefix.length() - 3);
+        } else if (outputPrefix.endsWith(LDADataset.binarySuffix)) {
+            outputPrefix = outputPrefix.substring(0, outputPrefix.length() - LDADataset.binarySuffix.length());
         }
         newModel.saveModel(outputPrefix + ".");
 
@@ -94,85 +193,77 @@ public class Inferencer
     }
 
     /**
-     * do sampling for inference
-     * m: document number
-     * n: word number?
+     * Split the new documents into contiguous ranges with roughly the same
+     * number of tokens and create one worker per range
      */
-    protected int infSampling(int m, int n)
+    protected void initWorkers(int nthreads)
     {
-        // remove z_i from the count variables
-        int topic = newModel.z[m].get(n);
-        int _w = newModel.data.docs.get(m).words[n];
-        int w = newModel.data.lid2gid.get(_w);
-
-        newModel.nw[_w][topic] -= 1;
-        newModel.nd[m][topic] -= 1;
-        newModel.nwsum[topic] -= 1;
-        newModel.ndsum[m] -= 1;
-
-        int[] nw_inf_m__w = null;
-        if (option.infSeparately) {
-            nw_inf_m__w = newModel.nw_inf.get(m).get(_w);
-            nw_inf_m__w[topic] -= 1;
-            newModel.nwsum_inf[m][topic] -= 1;
-        }
-
-        double Vbeta = trnModel.V * newModel.beta;
+        long ntokens = newModel.data.numTokens();
 
-        // get labels for this document
-        int[] labels = newModel.data.docs.get(m).labels;
-
-        // determine number of possible topics for this document
-        int K_m = (labels == null) ? newModel.K : labels.length;
-
-        // do multinomial sampling via cumulative method		
-        double[] p = newModel.p;
-        for (int k = 0; k < K_m; k++) {
-            topic = labels == null ? k : labels[k];
-
-            int nw_k, nwsum_k;
-            if (option.infSeparately) {
-                nw_k = nw_inf_m__w[topic];
-                nwsum_k = newModel.nwsum_inf[m][topic];
-            } else {
-                nw_k = newModel.nw[_w][topic];
-                nwsum_k = newModel.nwsum[topic];
+        workers = new InferenceWorker[nthreads];
+        long seen = 0;
+        int mStart = 0;
+        for (int t = 0, m = 0; t < nthreads; t++) {
+            long target = ntokens * (t + 1) / nthreads;
+            while (m < newModel.M && (seen < target || t == nthreads - 1)) {
+                seen += newModel.data.docLength(m);
+                m++;
             }
-
-            p[k] = (newModel.nd[m][topic] + newModel.alpha) *
-                (trnModel.nw[w][topic] + nw_k + newModel.beta) /
-                (trnModel.nwsum[topic] + nwsum_k + Vbeta);
+            // stream 0 is used by Model.init()
+            Rng rng = Rng.create(newModel.rngName, newModel.seed, t + 1);
+            workers[t] = new InferenceWorker(trnModel, newModel, option.infSeparately, rng,
+                    wordTables, smoothingTable, phi, mStart, m);
+            mStart = m;
         }
 
-        // cumulate multinomial parameters
-        for (int k = 1; k < K_m; k++){
-            p[k] += p[k - 1];
+        if (nthreads > 1) {
+            executor = Executors.newFixedThreadPool(nthreads);
         }
+    }
 
-        // scaled sample because of unnormalized p[]
-        double u = Math.random() * p[K_m - 1];
-
-        for (topic = 0; topic < K_m; topic++){
-            if (p[topic] > u)
-                break;
+    /**
+     * Run the workers on the pool and wait for all of them
+     */
+    protected void invokeAll(InferenceWorker[] tasks)
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (InferenceWorker task : tasks) {
+            futures.add(executor.submit(task));
         }
 
-        // map [0, K_m - 1] topic to [0, K - 1] topic according to labels
-        if (labels != null) {
-            topic = labels[topic];
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error in inference worker: " + e.getCause().getMessage(), e.getCause());
         }
+    }
 
-        // add newly estimated z_i to count variables
-        newModel.nw[_w][topic] += 1;
-        newModel.nd[m][topic] += 1;
-        newModel.nwsum[topic] += 1;
-        newModel.ndsum[m] += 1;
-
-        if (option.infSeparately) {
-            nw_inf_m__w[topic] += 1;
-            newModel.nwsum_inf[m][topic] += 1;
+    /**
+     * Bring newModel.nw and newModel.nwsum up to date with the topics
+     * changed since they were last counted
+     */
+    protected void recountWordTopics()
+    {
+        int[] z = newModel.z;
+        for (int m = 0; m < newModel.M; m++) {
+            int start = newModel.data.docStart(m);
+            for (int n = 0; n < newModel.data.docLength(m); n++) {
+                int oldTopic = countedZ[start + n];
+                int topic = z[start + n];
+                if (topic != oldTopic) {
+                    int _w = newModel.data.word(m, n);
+                    newModel.nw.decrement(_w, oldTopic);
+                    newModel.nw.increment(_w, topic);
+                    newModel.nwsum[oldTopic]--;
+                    newModel.nwsum[topic]++;
+                    countedZ[start + n] = topic;
+                }
+            }
         }
-
-        return topic;
     }
 }
@@ -0,0 +1,63 @@
+package jgibblda;
+
+/**
+ * Word-topic counts stored as one separately allocated int[K] row per word
+ */
+public class JaggedWordTopicCounts extends WordTopicCounts
+{
+    private final int[][] nw;
+
+    public JaggedWordTopicCounts(int V, int K)
+    {
+        super(V, K);
+        nw = new int[V][K];
+    }
+
+    public int get(int w, int k)
+    {
+        return nw[w][k];
+    }
+
+    public void set(int w, int k, int count)
+    {
+        nw[w][k] = count;
+    }
+
+    public void add(int w, int k, int delta)
+    {
+        nw[w][k] += delta;
+    }
+
+    public void getRow(int w, int[] row)
+    {
+        System.arraycopy(nw[w], 0, row, 0, K);
+    }
+
+    public int nonZeroTopics(int w, int[] topics, int[] counts)
+    {
+        int[] row = nw[w];
+        int size = 0;
+        for (int k = 0; k < K; k++) {
+            if (row[k] != 0) {
+                topics[size] = k;
+                counts[size++] = row[k];
+            }
+        }
+        return size;
+    }
+
+    public WordTopicCounts copy()
+    {
+        JaggedWordTopicCounts copy = new JaggedWordTopicCounts(V, K);
+        for (int w = 0; w < V; w++) {
+            System.arraycopy(nw[w], 0, copy.nw[w], 0, K);
+        }
+        return copy;
+    }
+
+    public long sizeInBytes()
+    {
+        // 16 byte array headers, 4 byte references (compressed oops)
+        return 16 + 4L * V + V * (16 + 4L * K);
+    }
+}
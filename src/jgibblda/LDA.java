@@ -28,6 +28,7 @@
 
 package jgibblda;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 
 import org.kohsuke.args4j.*;
@@ -47,10 +48,70 @@ public class LDA
 
             parser.parseArgument(args);
 
-            if (option.est || option.estc){
+            if (option.online){
+                OnlineEstimator estimator = new OnlineEstimator(option);
+                estimator.estimate();
+            }
+            else if (option.est || option.estc){
                 Estimator estimator = new Estimator(option);
                 estimator.estimate();
             }
+            else if (option.convert){
+                String dfile = option.dir + File.separator + option.dfile;
+                LDADataset data = new LDADataset();
+                data.nthreads = option.nthreads;
+                data.readDataSet(dfile, option.unlabeled);
+                if (data.writeBinaryDataSet(LDADataset.binaryName(dfile))) {
+                    System.out.println("Binary dataset saved to " + LDADataset.binaryName(dfile));
+                }
+            }
+            else if (option.generate){
+                CorpusGenerator generator = new CorpusGenerator();
+                generator.M = option.ndocs;
+                generator.V = option.nwords;
+                generator.K = option.K;
+                generator.docLength = option.docLength;
+                generator.labelsPerDoc = option.labelsPerDoc;
+                if (option.alpha >= 0)
+                    generator.alpha = option.alpha;
+                if (option.beta >= 0)
+                    generator.beta = option.beta;
+                generator.seed = option.seed != 0 ? option.seed : 1;
+                generator.rngName = option.rng;
+                generator.twords = option.twords;
+                generator.thetaTopics = option.truthTheta;
+
+                String modelName = option.modelName.length() > 0 ? option.modelName : "truth";
+                long start = System.nanoTime();
+                generator.generate(option.dir, option.dfile, modelName);
+                System.out.format("Generated %d documents, %d tokens in %.2fs; ground truth saved as %s%n",
+                        generator.M, generator.ntokens, (System.nanoTime() - start) / 1e9, modelName);
+            }
+            else if (option.eval){
+                InferenceEngine engine = InferenceEngine.load(option);
+                engine.niters = option.niters;
+                engine.nburnin = option.nburnin;
+                engine.samplingLag = option.samplingLag;
+                engine.setMode(option.infMode);
+
+                PerplexityEvaluator evaluator = new PerplexityEvaluator(engine);
+                evaluator.method = option.evalMethod;
+                evaluator.nparticles = option.nparticles;
+                evaluator.batchSize = option.batchSize;
+                evaluator.nthreads = Math.max(1, option.nthreads);
+                evaluator.unlabeled = option.unlabeled;
+
+                long start = System.nanoTime();
+                double perplexity = evaluator.evaluate(option.dir + File.separator + option.dfile);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.format("Held-out perplexity (%s): %.4f, log-likelihood %.6e of %d words in %d documents%n",
+                        evaluator.method, perplexity, evaluator.logLikelihood, evaluator.ntokens, evaluator.ndocs);
+                System.out.format("Skipped %d documents with fewer than 2 known words and %d unknown words; %.2fs (%.0f documents/s, %d thread(s))%n",
+                        evaluator.nskipped, evaluator.nunknown, seconds, evaluator.ndocs / seconds, evaluator.nthreads);
+            }
+            else if (option.serve){
+                InferenceServer.serve(option);
+            }
             else if (option.inf){
                 Inferencer inferencer = new Inferencer(option);
                 Model newModel = inferencer.inference();
@@ -13,12 +13,39 @@ public class LDACmdOption {
     @Option(name="-inf", usage="Specify whether we want to do inference")
         public boolean inf = true;
 
+    @Option(name="-convert", usage="Convert the data file to the binary dataset format")
+        public boolean convert = false;
+
+    @Option(name="-serve", usage="Serve inference with the trained model over HTTP on localhost")
+        public boolean serve = false;
+
+    @Option(name="-online", usage="Estimate the model with online variational Bayes, streaming the data file in mini-batches (-estc to continue)")
+        public boolean online = false;
+
+    @Option(name="-generate", usage="Generate a synthetic corpus into the data file, with its ground truth saved as the model")
+        public boolean generate = false;
+
+    @Option(name="-eval", usage="Evaluate the held-out perplexity of the data file under the model")
+        public boolean eval = false;
+
+    @Option(name="-evalmethod", usage="Specify the perplexity estimate of -eval: completion (document completion) or lefttoright")
+        public String evalMethod = "completion";
+
+    @Option(name="-nparticles", usage="Specify the number of particles of the left-to-right perplexity estimate")
+        public int nparticles = 20;
+
     @Option(name="-infseparately", usage="Do inference for each document separately")
         public boolean infSeparately = false;
 
+    @Option(name="-infmode", usage="Specify the inference mode: gibbs, phi (Gibbs fold-in against a frozen phi) or em (-serve only)")
+        public String infMode = "gibbs";
+
     @Option(name="-unlabeled", usage="Ignore document labels")
         public boolean unlabeled = false;
 
+    @Option(name="-keeprawtext", usage="Keep the raw text of documents in memory")
+        public boolean keepRawText = false;
+
     @Option(name="-dir", usage="Specify directory")
         public String dir = "";
 
@@ -46,6 +73,87 @@ public class LDACmdOption {
     @Option(name="-samplinglag", usage="Specify the sampling lag")
         public int samplingLag = 5;
 
+    @Option(name="-stoptol", usage="Specify the tolerance of the convergence criterion that stops sampling early (0 to always run niters)")
+        public double stopTol = 0;
+
+    @Option(name="-stopcriterion", usage="Specify the convergence criterion of estimation: ll (relative change of the log-likelihood) or changes (fraction of changed topics)")
+        public String stopCriterion = "ll";
+
+    @Option(name="-stopstep", usage="Specify the number of iterations between convergence checks")
+        public int stopStep = 10;
+
+    @Option(name="-sampler", usage="Specify the sampler: dense, sparse (estimation only), alias or labeled")
+        public String sampler = "dense";
+
+    @Option(name="-nwlayout", usage="Specify the memory layout of the word-topic counts: jagged, flat, packed or sparse")
+        public String nwLayout = "jagged";
+
+    @Option(name="-nwalign", usage="Specify the row alignment in bytes of the flat word-topic count layouts")
+        public int nwAlign = 0;
+
+    @Option(name="-ndlayout", usage="Specify the memory layout of the document-topic counts: dense, labels or sparse")
+        public String ndLayout = "dense";
+
+    @Option(name="-seed", usage="Specify the random seed (0 for a random seed)")
+        public int seed = 0;
+
+    @Option(name="-rng", usage="Specify the random number generator: xoroshiro or splittable")
+        public String rng = "xoroshiro";
+
+    @Option(name="-nthreads", usage="Specify the number of sampling threads (approximate distributed LDA if > 1)")
+        public int nthreads = 1;
+
+    @Option(name="-ckptformat", usage="Specify the format of saved topic assignments: text (.tassign.gz) or binary (.ckpt)")
+        public String ckptFormat = "text";
+
+    @Option(name="-savestep", usage="Specify the number of iterations between checkpoints (0 for none)")
+        public int saveStep = 0;
+
+    @Option(name="-savekeep", usage="Specify the number of checkpoints kept on disk")
+        public int saveKeep = 3;
+
+    @Option(name="-metricsstep", usage="Specify the number of iterations between records of the estimation metrics (0 for none)")
+        public int metricsStep = 0;
+
+    @Option(name="-mmap", usage="Keep the word ids of loaded binary checkpoints memory-mapped")
+        public boolean mmap = false;
+
+    @Option(name="-batchsize", usage="Specify the number of documents per mini-batch of online estimation, or read at a time by -eval")
+        public int batchSize = 256;
+
+    @Option(name="-tau0", usage="Specify tau0 of the online learning rate (tau0 + t)^-kappa")
+        public double tau0 = 1024;
+
+    @Option(name="-kappa", usage="Specify kappa of the online learning rate (tau0 + t)^-kappa, in (0.5, 1]")
+        public double kappa = 0.7;
+
+    @Option(name="-corpussize", usage="Specify the total number of documents for online estimation (0 for the number seen so far)")
+        public int corpusSize = 0;
+
+    @Option(name="-npasses", usage="Specify the number of passes over the data file of online estimation")
+        public int npasses = 1;
+
+    @Option(name="-ndocs", usage="Specify the number of documents generated by -generate")
+        public int ndocs = 1000;
+
+    @Option(name="-nwords", usage="Specify the vocabulary size of -generate")
+        public int nwords = 10000;
+
+    @Option(name="-doclength", usage="Specify the mean document length of -generate")
+        public int docLength = 100;
+
+    @Option(name="-labelsperdoc", usage="Specify the number of labels per document of -generate (0 for unlabeled documents)")
+        public int labelsPerDoc = 0;
+
+    @Option(name="-truththeta", usage="Specify the number of largest topic proportions saved per document by -generate (0 for no theta file)")
+        public int truthTheta = 10;
+
+    @Option(name="-port", usage="Specify the port of the inference server")
+        public int port = 8080;
+
+    @Option(name="-maxbatch", usage="Specify the maximum number of documents inferred in one batch by the inference server")
+        public int maxBatch = 64;
+
     @Option(name="-twords", usage="Specify the number of most likely words to be printed for each topic")
         public int twords = 100;
 }
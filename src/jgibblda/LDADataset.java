@@ -28,11 +28,16 @@
 package jgibblda;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 import gnu.trove.list.array.TIntArrayList;
@@ -45,7 +50,6 @@ public class LDADataset {
     //---------------------------------------------------------------
 
     public Dictionary localDict = new Dictionary();			// local dictionary	
-    public ArrayList<Document> docs = new ArrayList<Document>(); 		// a list of documents	
     public int M = 0; 			 		// number of documents
     public int V = 0;			 		// number of words
 
@@ -56,6 +60,39 @@ public class LDADataset {
     //link to a global dictionary (optional), null for train data, not null for test data
     public Dictionary globalDict = null;	 		
 
+    // keep the raw text of every document (not needed for sampling)
+    public boolean keepRawText = false;
+
+    // number of threads used to read text datasets
+    public int nthreads = 1;
+
+    // documents are stored back to back in a single token array,
+    // document m occupies words[docStarts[m]] .. words[docStarts[m + 1] - 1]
+    protected int[] words = new int[1024];
+    protected int numTokens = 0;
+    protected int[] docStarts = new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    protected int[][] labels = new int[16][]; // sorted labels of each document, or null if unlabeled
+    protected ArrayList<String> rawStrs = null; // raw text of each document (only if keepRawText)
+
+    // word ids of a memory-mapped binary dataset (words is null then),
+    // token i is mappedWords[i >>> BinaryInput.CHUNK_BITS].get(i & BinaryInput.CHUNK_MASK)
+    protected IntBuffer[] mappedWords = null;
+
+    // binary dataset format (little-endian): a header (magic, version, M, V,
+    // number of tokens, number of labels, 8 reserved bytes), document start
+    // offsets (M + 1 ints), label start offsets (M + 1 ints), labels, word
+    // ids (one int per token), then the dictionary (length-prefixed UTF-8
+    // words, ordered by id)
+    public static final int BINARY_MAGIC = 0x43414442; // "BDAC"
+    public static final int BINARY_VERSION = 1;
+    private static final int BINARY_HEADER_SIZE = 32;
+    public static String binarySuffix = ".bin";
+
+    static final Pattern WHITESPACE = Pattern.compile("[ \\t\\n]");
+
+    // largest array the JVM will reliably allocate
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
     //-------------------------------------------------------------
     //Public Instance Methods
     //-------------------------------------------------------------
@@ -71,16 +108,80 @@ public class LDADataset {
     }
 
     /**
-     * set the document at the index idx if idx is greater than 0 and less than M
-     * @param doc document to be set
-     * @param idx index in the document array
-     */	
-    public void setDoc(Document doc, int idx){
-        if (idx < docs.size()) {
-            docs.set(idx, doc);
-        } else {
-            docs.add(idx, doc);
+     * Number of words in document m
+     */
+    public int docLength(int m)
+    {
+        return docStarts[m + 1] - docStarts[m];
+    }
+
+    /**
+     * Position of the first word of document m in the token array
+     */
+    public int docStart(int m)
+    {
+        return docStarts[m];
+    }
+
+    /**
+     * Word id of the n-th word of document m
+     */
+    public int word(int m, int n)
+    {
+        int i = docStarts[m] + n;
+        return words != null ? words[i] : mappedWords[i >>> BinaryInput.CHUNK_BITS].get(i & BinaryInput.CHUNK_MASK);
+    }
+
+    /**
+     * Sorted labels of document m, or null if it is unlabeled
+     */
+    public int[] labels(int m)
+    {
+        return labels[m];
+    }
+
+    /**
+     * Raw text of document m, or null if keepRawText wasn't set
+     */
+    public String rawStr(int m)
+    {
+        return rawStrs == null ? null : rawStrs.get(m);
+    }
+
+    /**
+     * Total number of words in the dataset
+     */
+    public int numTokens()
+    {
+        return numTokens;
+    }
+
+    /**
+     * Document m as a standalone object (copies its words)
+     */
+    public Document getDoc(int m)
+    {
+        // through word(), as the words may be memory-mapped
+        int[] ids = new int[docLength(m)];
+        for (int n = 0; n < ids.length; n++) {
+            ids[n] = word(m, n);
+        }
+        Document doc = new Document(TIntArrayList.wrap(ids), rawStr(m) == null ? "" : rawStr(m));
+        doc.labels = labels(m);
+        return doc;
+    }
+
+    /**
+     * add a new document
+     * @param ids word ids of the document
+     * @param tlabels labels of the document, or null if unlabeled
+     */
+    public void addDoc(TIntArrayList ids, TIntArrayList tlabels)
+    {
+        for (int i = 0; i < ids.size(); i++) {
+            addWord(ids.get(i));
         }
+        endDoc(tlabels, null);
     }
 
     /**
@@ -95,27 +196,15 @@ public class LDADataset {
             String[] labelsBoundary = str.
                 substring(1). // remove initial '['
                 split("]", 2); // separate labels and str between ']'
-            String[] labelStrs = labelsBoundary[0].trim().split("[ \\t]");
             str = labelsBoundary[1].trim();
 
             // parse labels (unless we're ignoring the labels)
             if (!unlabeled) {
-                // store labels in a HashSet to ensure uniqueness
-                TIntHashSet label_set = new TIntHashSet();
-                for (String labelStr : labelStrs) {
-                    try {
-                        label_set.add(Integer.parseInt(labelStr.trim()));
-                    } catch (NumberFormatException nfe) {
-                        System.err.println("Unknown document label ( " + labelStr + " ) for document " + docs.size() + ".");
-                    }
-                }
-                labels = new TIntArrayList(label_set);
-                labels.sort();
+                labels = parseLabels(labelsBoundary[0], M);
             }
         }
 
-        String[] words = str.split("[ \\t\\n]");
-        TIntArrayList ids = new TIntArrayList();
+        String[] words = WHITESPACE.split(str);
         for (String word : words){
             if (word.trim().equals("")) {
                 continue;
@@ -132,48 +221,377 @@ public class LDADataset {
                     localDict.addWord(word);
 
                     lid2gid.put(_id, globalDict.getID(word));
-                    ids.add(_id);
+                    addWord(_id);
                 }
             }
             else {
                 localDict.addWord(word);
-                ids.add(_id);
+                addWord(_id);
             }
         }
 
-        setDoc(new Document(ids, str, labels), docs.size());
+        endDoc(labels, str);
 
         V = localDict.word2id.size();
     }
 
+    /**
+     * parse the labels of a document
+     * @param labelsStr labels separated by spaces or tabs
+     * @param doc document number (for error messages)
+     * @return sorted unique labels
+     */
+    static TIntArrayList parseLabels(String labelsStr, int doc)
+    {
+        String[] labelStrs = labelsStr.trim().split("[ \\t]");
+
+        // store labels in a HashSet to ensure uniqueness
+        TIntHashSet label_set = new TIntHashSet();
+        for (String labelStr : labelStrs) {
+            try {
+                label_set.add(Integer.parseInt(labelStr.trim()));
+            } catch (NumberFormatException nfe) {
+                System.err.println("Unknown document label ( " + labelStr + " ) for document " + doc + ".");
+            }
+        }
+        TIntArrayList labels = new TIntArrayList(label_set);
+        labels.sort();
+        return labels;
+    }
+
+    /**
+     * Append a word to the document being added
+     */
+    void addWord(int id)
+    {
+        if (numTokens == words.length) {
+            words = grow(words, numTokens + 1);
+        }
+        words[numTokens++] = id;
+    }
+
+    /**
+     * Close the document being added
+     */
+    void endDoc(TIntArrayList tlabels, String rawStr)
+    {
+        if (M + 2 > docStarts.length) {
+            docStarts = grow(docStarts, M + 2);
+            labels = Arrays.copyOf(labels, docStarts.length);
+        }
+        labels[M] = tlabels != null ? tlabels.toArray() : null;
+        docStarts[++M] = numTokens;
+
+        if (keepRawText) {
+            if (rawStrs == null) {
+                rawStrs = new ArrayList<String>();
+            }
+            rawStrs.add(rawStr != null ? rawStr : "");
+        }
+    }
+
+    /**
+     * Grow an array by half its size (at least to minSize)
+     */
+    private static int[] grow(int[] array, int minSize)
+    {
+        if (minSize > MAX_ARRAY_SIZE) {
+            throw new IllegalStateException("Dataset is too large: more than " + MAX_ARRAY_SIZE + " words or documents");
+        }
+        long size = Math.max((long) array.length + (array.length >> 1), minSize);
+        return Arrays.copyOf(array, (int) Math.min(size, MAX_ARRAY_SIZE));
+    }
+
+    /**
+     * Release the spare capacity left after loading
+     */
+    public void trimToSize()
+    {
+        if (words != null) {
+            words = Arrays.copyOf(words, numTokens);
+        }
+        docStarts = Arrays.copyOf(docStarts, M + 1);
+        labels = Arrays.copyOf(labels, M);
+        if (rawStrs != null) {
+            rawStrs.trimToSize();
+        }
+    }
+
+    /**
+     * Approximate heap footprint of the documents in bytes (dictionary excluded)
+     */
+    public long sizeInBytes()
+    {
+        long bytes = (words != null ? 4L * words.length : 0) + 4L * docStarts.length + 8L * labels.length;
+        for (int m = 0; m < M; m++) {
+            if (labels[m] != null) {
+                bytes += 16 + 4L * labels[m].length;
+            }
+        }
+        if (rawStrs != null) {
+            for (String str : rawStrs) {
+                bytes += 40 + 2L * str.length();
+            }
+        }
+        return bytes;
+    }
+
     //---------------------------------------------------------------
     // I/O methods
     //---------------------------------------------------------------
 
     /**
-     * read a dataset from a file
+     * read a dataset from a file (a gzipped text file or a binary dataset)
      * @return true if success and false otherwise
      */
     public boolean readDataSet(String filename, boolean unlabeled) throws FileNotFoundException, IOException
+    {
+        if (isBinaryDataSet(filename)) {
+            readBinaryDataSet(filename, unlabeled);
+        } else {
+            readTextDataSet(filename, unlabeled);
+        }
+
+        // debug output
+        System.out.println("Dataset loaded:");
+        System.out.println("\tM:" + M);
+        System.out.println("\tV:" + V);
+        System.out.println("\tTokens:" + numTokens);
+        System.out.println(String.format("\tBytes/token:%.2f%s", numTokens == 0 ? 0.0 : (double) sizeInBytes() / numTokens,
+                    mappedWords != null ? " (word ids memory-mapped)" : ""));
+
+        return true;
+    }
+
+    /**
+     * read a dataset from a gzipped text file, one document per line
+     */
+    protected void readTextDataSet(String filename, boolean unlabeled) throws FileNotFoundException, IOException
     {
         BufferedReader reader = new BufferedReader(new InputStreamReader(
                     new GZIPInputStream(
                         new FileInputStream(filename)), "UTF-8"));
         try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                addDoc(line, unlabeled);
+            if (nthreads > 1) {
+                ParallelDataSetReader.read(this, reader, unlabeled, nthreads);
+            } else {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    addDoc(line, unlabeled);
+                }
             }
-            setM(docs.size());
+            trimToSize();
+        } finally {
+            reader.close();
+        }
+    }
 
-            // debug output
-            System.out.println("Dataset loaded:");
-            System.out.println("\tM:" + M);
-            System.out.println("\tV:" + V);
+    /**
+     * check whether a file starts with the magic number of binary datasets
+     */
+    public static boolean isBinaryDataSet(String filename) throws FileNotFoundException, IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(filename));
+        try {
+            return Integer.reverseBytes(in.readInt()) == BINARY_MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
 
-            return true;
+    /**
+     * name of the binary dataset converted from a text dataset
+     */
+    public static String binaryName(String filename)
+    {
+        if (filename.endsWith(".gz")) {
+            filename = filename.substring(0, filename.length() - 3);
+        }
+        return filename + binarySuffix;
+    }
+
+    /**
+     * read a binary dataset; the word ids are memory-mapped, unless a
+     * global dictionary is set, in which case they are remapped to local
+     * ids and copied to the heap
+     */
+    protected void readBinaryDataSet(String filename, boolean unlabeled) throws IOException
+    {
+        BinaryInput in = new BinaryInput(filename);
+        try {
+            ByteBuffer header = in.map(BINARY_HEADER_SIZE);
+            header.getInt(); // magic
+            int version = header.getInt();
+            if (version != BINARY_VERSION) {
+                throw new IOException("Unsupported binary dataset version " + version + " in " + filename);
+            }
+            int fileM = header.getInt();
+            int fileV = header.getInt();
+            int fileTokens = header.getInt();
+            int fileLabels = header.getInt();
+
+            int[] fileDocStarts = in.readInts(fileM + 1);
+            int[] labelStarts = in.readInts(fileM + 1);
+            int[][] fileLabelArrays = new int[fileM][];
+            if (!unlabeled) {
+                fileLabelArrays = readLabels(in, labelStarts, fileLabels);
+            } else {
+                in.skip(4L * fileLabels);
+            }
+            IntBuffer[] fileWords = in.mapInts(fileTokens);
+            String[] vocab = readVocabulary(in, fileV);
+
+            if (globalDict == null) {
+                // use the mapped word ids as they are
+                for (String word : vocab) {
+                    localDict.addWord(word);
+                }
+                V = localDict.word2id.size();
+                setDocuments(fileM, fileDocStarts, fileLabelArrays, null, fileWords);
+                return;
+            }
+
+            // keep the words of the global dictionary only, with local ids
+            // assigned in order of first occurrence (as for text datasets)
+            int[] remap = new int[fileV];
+            for (int id = 0; id < fileV; id++) {
+                remap[id] = -1;
+                if (globalDict.contains(vocab[id])) {
+                    remap[id] = localDict.addWord(vocab[id]);
+                    lid2gid.put(remap[id], globalDict.getID(vocab[id]));
+                }
+            }
+            V = localDict.word2id.size();
+            for (int m = 0; m < fileM; m++) {
+                for (int i = fileDocStarts[m]; i < fileDocStarts[m + 1]; i++) {
+                    int id = remap[fileWords[i >>> BinaryInput.CHUNK_BITS].get(i & BinaryInput.CHUNK_MASK)];
+                    if (id >= 0) {
+                        addWord(id);
+                    }
+                }
+                endDoc(fileLabelArrays[m] != null ? TIntArrayList.wrap(fileLabelArrays[m]) : null, null);
+            }
+            trimToSize();
         } finally {
-            reader.close();
+            in.close();
+        }
+    }
+
+    /**
+     * Replace the documents of this dataset; word ids are given either as
+     * an array or as memory-mapped chunks
+     */
+    void setDocuments(int M, int[] docStarts, int[][] labels, int[] words, IntBuffer[] mappedWords)
+    {
+        this.M = M;
+        this.docStarts = docStarts;
+        this.labels = labels;
+        this.words = words;
+        this.mappedWords = mappedWords;
+        numTokens = docStarts[M];
+    }
+
+    /**
+     * read document labels stored as label start offsets followed by the labels
+     */
+    static int[][] readLabels(BinaryInput in, int[] labelStarts, int numLabels) throws IOException
+    {
+        int M = labelStarts.length - 1;
+        int[] all = in.readInts(numLabels);
+        int[][] labels = new int[M][];
+        for (int m = 0; m < M; m++) {
+            if (labelStarts[m + 1] > labelStarts[m]) {
+                labels[m] = Arrays.copyOfRange(all, labelStarts[m], labelStarts[m + 1]);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * write document labels as label start offsets followed by the labels
+     */
+    static void writeLabels(BinaryOutput out, int[][] labels, int M) throws IOException
+    {
+        int labelStart = 0;
+        for (int m = 0; m <= M; m++) {
+            out.putInt(labelStart);
+            labelStart += m < M && labels[m] != null ? labels[m].length : 0;
+        }
+        for (int m = 0; m < M; m++) {
+            if (labels[m] != null) {
+                out.putInts(labels[m], 0, labels[m].length);
+            }
+        }
+    }
+
+    static int countLabels(int[][] labels, int M)
+    {
+        int numLabels = 0;
+        for (int m = 0; m < M; m++) {
+            numLabels += labels[m] != null ? labels[m].length : 0;
+        }
+        return numLabels;
+    }
+
+    /**
+     * read V length-prefixed UTF-8 words
+     */
+    private static String[] readVocabulary(BinaryInput in, int V) throws IOException
+    {
+        ByteBuffer dictBuffer = in.map(in.remaining());
+        String[] vocab = new String[V];
+        byte[] bytes = new byte[64];
+        for (int id = 0; id < V; id++) {
+            int length = dictBuffer.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            dictBuffer.get(bytes, 0, length);
+            vocab[id] = new String(bytes, 0, length, "UTF-8");
+        }
+        return vocab;
+    }
+
+    /**
+     * write this dataset in the binary format
+     * @return true if success and false otherwise
+     */
+    public boolean writeBinaryDataSet(String filename)
+    {
+        try {
+            BinaryOutput out = new BinaryOutput(filename);
+            try {
+                out.putInt(BINARY_MAGIC);
+                out.putInt(BINARY_VERSION);
+                out.putInt(M);
+                out.putInt(V);
+                out.putInt(numTokens);
+                out.putInt(countLabels(labels, M));
+                out.putLong(0L); // reserved
+
+                out.putInts(docStarts, 0, M + 1);
+                writeLabels(out, labels, M);
+                for (int m = 0; m < M; m++) {
+                    for (int n = 0; n < docLength(m); n++) {
+                        out.putInt(word(m, n));
+                    }
+                }
+                for (int id = 0; id < V; id++) {
+                    byte[] bytes = localDict.getWord(id).getBytes("UTF-8");
+                    out.putInt(bytes.length);
+                    out.putBytes(bytes);
+                }
+            } finally {
+                out.close();
+            }
+        }
+        catch (Exception e) {
+            System.out.println("Error while writing binary dataset: " + e.getMessage());
+            e.printStackTrace();
+            return false;
         }
+        return true;
     }
 }
@@ -0,0 +1,82 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * Document-topic counts indexed by label position: a labeled document only
+ * keeps one count per label (its words can't be assigned to other topics),
+ * an unlabeled document keeps one count per topic.
+ */
+public class LabelDocTopicCounts extends DocTopicCounts
+{
+    private final int[][] labels; // sorted labels of each document, or null if unlabeled
+    private final int[][] nd;     // nd[m][j]: number of words in document m assigned to labels[m][j]
+
+    public LabelDocTopicCounts(LDADataset data, int M, int K)
+    {
+        super(M, K);
+        labels = new int[M][];
+        nd = new int[M][];
+        for (int m = 0; m < M; m++) {
+            labels[m] = data.labels(m);
+            nd[m] = new int[labels[m] == null ? K : labels[m].length];
+        }
+    }
+
+    /**
+     * Position of topic k in the labels of document m, or -1
+     */
+    public int position(int m, int k)
+    {
+        if (labels[m] == null) {
+            return k;
+        }
+        int j = Arrays.binarySearch(labels[m], k);
+        return j < 0 ? -1 : j;
+    }
+
+    /**
+     * Counts of document m, indexed by label position
+     */
+    public int[] row(int m)
+    {
+        return nd[m];
+    }
+
+    public int get(int m, int k)
+    {
+        int j = position(m, k);
+        return j < 0 ? 0 : nd[m][j];
+    }
+
+    public void add(int m, int k, int delta)
+    {
+        int j = position(m, k);
+        if (j < 0) {
+            throw new IllegalArgumentException("Topic " + k + " is not a label of document " + m);
+        }
+        nd[m][j] += delta;
+    }
+
+    public int nonZeroTopics(int m, int[] topics, int[] counts)
+    {
+        int[] nd_m = nd[m];
+        int n = 0;
+        for (int j = 0; j < nd_m.length; j++) {
+            if (nd_m[j] != 0) {
+                topics[n] = labels[m] == null ? j : labels[m][j];
+                counts[n++] = nd_m[j];
+            }
+        }
+        return n;
+    }
+
+    public long sizeInBytes()
+    {
+        long size = 2 * (16 + 4L * M);
+        for (int m = 0; m < M; m++) {
+            size += 16 + 4L * nd[m].length;
+        }
+        return size;
+    }
+}
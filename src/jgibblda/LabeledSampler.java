@@ -0,0 +1,77 @@
+package jgibblda;
+
+/**
+ * Collapsed Gibbs sampler for Labeled LDA. Works on label-local document
+ * counts (LabelDocTopicCounts), so sampling a word of a labeled document
+ * only touches one count per label of the document plus the corresponding
+ * word-topic counts. Combine with the sparse word-topic count layout when
+ * there are many labels.
+ */
+public class LabeledSampler extends Sampler
+{
+    private final LabelDocTopicCounts nd;
+
+    // temp variables for sampling
+    private final double[] p;
+
+    public LabeledSampler(Model model, WordTopicCounts nw, int[] nwsum, Rng rng)
+    {
+        super(model, nw, nwsum, rng);
+
+        if (!(model.nd instanceof LabelDocTopicCounts)) {
+            throw new IllegalArgumentException("The labeled sampler requires label-local document counts");
+        }
+        nd = (LabelDocTopicCounts)model.nd;
+        p = new double[model.K];
+    }
+
+    public int sampling(int m, int n)
+    {
+        int topic = model.z[model.data.docStart(m) + n];
+        int w = model.data.word(m, n);
+
+        // get labels for this document, and its counts indexed by label position
+        int[] labels = model.data.labels(m);
+        int[] nd_m = nd.row(m);
+
+        // determine number of possible topics for this document
+        int K_m = nd_m.length;
+
+        // remove z_i from the count variable
+        int j = nd.position(m, topic);
+        nw.decrement(w, topic);
+        nd_m[j] -= 1;
+        nwsum[topic] -= 1;
+        model.ndsum[m] -= 1;
+
+        double Vbeta = model.V * model.beta;
+
+        // do multinominal sampling via cumulative method
+        double sum = 0;
+        for (j = 0; j < K_m; j++) {
+            topic = labels == null ? j : labels[j];
+
+            sum += (nd_m[j] + model.alpha) *
+                (nw.get(w, topic) + model.beta) /
+                (nwsum[topic] + Vbeta);
+            p[j] = sum;
+        }
+
+        // scaled sample because of unnormalized p[]
+        double u = rng.nextDouble() * sum;
+
+        for (j = 0; j < K_m - 1; j++) {
+            if (p[j] > u)
+                break;
+        }
+        topic = labels == null ? j : labels[j];
+
+        // add newly estimated z_i to count variables
+        nw.increment(w, topic);
+        nd_m[j] += 1;
+        nwsum[topic] += 1;
+        model.ndsum[m] += 1;
+
+        return topic;
+    }
+}
@@ -36,14 +36,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.StringTokenizer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 
 public class Model {	
 
@@ -57,6 +57,7 @@ public class Model {
     public static String othersSuffix  = ".others.gz"; 	 // suffix for containing other parameters
     public static String twordsSuffix  = ".twords.gz";	 // suffix for file containing words-per-topics
     public static String wordMapSuffix  = ".wordmap.gz"; // suffix for file containing word to id map
+    public static String checkpointSuffix = ".ckpt";     // suffix for binary checkpoint file
 
     //---------------------------------------------------------------
     //	Model Parameters and Variables
@@ -79,34 +80,95 @@ public class Model {
     public int samplingLag = 5;// Gibbs sampling sample lag
     public int numSamples = 1; // number of samples taken
     public int liter = 0;      // the iteration at which the model was saved	
+    public boolean stoppedEarly = false; // whether sampling stopped at convergence, before niters
     public int twords = 20;    // print out top words per each topic
-
-    // Estimated/Inferenced parameters
-    public double[][] theta = null; // theta: document - topic distributions, size M x K
-    public double[][] phi = null;   // phi: topic-word distributions, size K x V
+    public int nthreads = 1;   // threads used to select the top words
+    public long seed = 0;      // random seed
+    protected boolean randomSeed = false; // whether seed was drawn, i.e. no -seed was given
+    public String rngName = "xoroshiro"; // random number generator
+    public String nwLayout = "jagged"; // memory layout of nw
+    public int nwAlign = 0;    // row alignment of nw in bytes (flat layouts only)
+    public String ndLayout = "dense"; // memory layout of nd
+    public String ckptFormat = "text"; // format of saved topic assignments (text or binary)
+    public boolean mmap = false; // keep the word ids of loaded checkpoints memory-mapped
+
+    // Estimated/Inferenced parameters, kept as sums of the counts over the samples
+    // taken and normalized when read (see getTheta() and getPhi())
+    protected DocTopicCounts ndSampleSum = null; // sum of nd over the samples, size M x K
+    protected WordTopicSums nwSampleSum = null; // sum of nw over the samples, non-zero topics only (only if twords > 0)
+    protected double[] nwsumSampleSum = null;   // sum of nwsum over the samples, size K
+    protected double phiVbeta = 0;              // V * beta of the word-topic counts summed in nwSampleSum
+
+    // pool of nthreads threads for the parallel loops (see parallel())
+    private Parallel parallel = null;
 
     // Temp variables while sampling
-    public TIntArrayList[] z = null; // topic assignments for words, size M x doc.size()
-    protected int[][] nw = null;       // nw[i][j]: number of instances of word/term i assigned to topic j, size V x K
-    protected int[][] nd = null;       // nd[i][j]: number of words in document i assigned to topic j, size M x K
+    public int[] z = null; // topic assignments for words, indexed like the dataset tokens (data.docStart(m) + n)
+    protected WordTopicCounts nw = null; // nw[i][j]: number of instances of word/term i assigned to topic j, size V x K
+    protected DocTopicCounts nd = null; // nd[i][j]: number of words in document i assigned to topic j, size M x K
     protected int[] nwsum = null;      // nwsum[j]: total number of words assigned to topic j, size K
     protected int[] ndsum = null;      // ndsum[i]: total number of words in document i, size M
 
-    protected ArrayList<TIntObjectHashMap<int[]>> nw_inf = null;       // nw[m][i][j]: number of instances of word/term i assigned to topic j in doc m, size M x V x K
-    protected int[][] nwsum_inf = null;      // nwsum[m][j]: total number of words assigned to topic j in doc m, size M x K
+    // nw_inf[m]: (word * K + topic) -> number of instances of word assigned to topic in doc m,
+    // non-zero counts only; the topic totals of doc m are nd[m]
+    protected TLongIntHashMap[] nw_inf = null;
 
     // temp variables for sampling
     protected double[] p = null; 
 
+    // log-gamma of the counts plus beta and alpha (see logLikelihood())
+    protected SpecialFunctions.LogGammaTable lgammaBeta = null;
+    protected SpecialFunctions.LogGammaTable lgammaAlpha = null;
+
     //---------------------------------------------------------------
     //	Constructors
     //---------------------------------------------------------------	
 
+    /**
+     * Empty model, whose fields are set by the caller
+     */
+    protected Model()
+    {
+    }
+
     public Model(LDACmdOption option) throws FileNotFoundException, IOException
     {
         this(option, null);
     }
 
+    /**
+     * Snapshot of model that shares its dataset and settings, with the
+     * given copy of its topic assignments and no counts: it can only be
+     * saved with saveCheckpoint(), which doesn't need them
+     */
+    protected Model(Model model, int[] z)
+    {
+        dir = model.dir;
+        dfile = model.dfile;
+        unlabeled = model.unlabeled;
+        modelName = model.modelName;
+        data = model.data;
+        M = model.M;
+        V = model.V;
+        K = model.K;
+        alpha = model.alpha;
+        beta = model.beta;
+        niters = model.niters;
+        nburnin = model.nburnin;
+        samplingLag = model.samplingLag;
+        liter = model.liter;
+        twords = model.twords;
+        nthreads = model.nthreads;
+        seed = model.seed;
+        rngName = model.rngName;
+        nwLayout = model.nwLayout;
+        nwAlign = model.nwAlign;
+        ndLayout = model.ndLayout;
+        ckptFormat = model.ckptFormat;
+
+        this.z = z;
+    }
+
     public Model(LDACmdOption option, Model trnModel) throws FileNotFoundException, IOException
     {
         modelName = option.modelName;
@@ -130,6 +192,27 @@ public class Model {
         dfile = option.dfile;
         unlabeled = option.unlabeled;
         twords = option.twords;
+        nthreads = option.nthreads;
+        rngName = option.rng;
+        seed = option.seed;
+        randomSeed = seed == 0;
+        if (randomSeed) {
+            // a positive int, so that it can be passed back with -seed
+            seed = 1 + new Random().nextInt(Integer.MAX_VALUE - 1);
+        }
+        System.out.println("Random seed: " + seed);
+
+        nwLayout = option.nwLayout;
+        nwAlign = option.nwAlign;
+        ckptFormat = option.ckptFormat;
+        if (!ckptFormat.equalsIgnoreCase("text") && !ckptFormat.equalsIgnoreCase("binary")) {
+            throw new IllegalArgumentException("Unknown checkpoint format: " + ckptFormat);
+        }
+        mmap = option.mmap;
+        ndLayout = option.ndLayout;
+        if (option.sampler.equalsIgnoreCase("labeled")) {
+            ndLayout = "labels";
+        }
 
         // initialize dataset
         data = new LDADataset();
@@ -147,7 +230,11 @@ public class Model {
         }
 
         // read in data
-        data.readDataSet(dir + File.separator + dfile, unlabeled);
+        data.keepRawText = option.keepRawText;
+        data.nthreads = option.nthreads;
+        if (dfile.length() > 0) {
+            data.readDataSet(dir + File.separator + dfile, unlabeled);
+        }
     }
 
     //---------------------------------------------------------------
@@ -162,7 +249,7 @@ public class Model {
         if (random) {
             M = data.M;
             V = data.V;
-            z = new TIntArrayList[M];
+            z = new int[data.numTokens()];
         } else {
             if (!loadModel()) {
                 System.out.println("Fail to load word-topic assignment file of the model!"); 
@@ -180,73 +267,69 @@ public class Model {
 
         p = new double[K];
 
+        // counts restored from a binary checkpoint don't need to be recomputed
+        if (nw == null) {
+            initCounts(random);
+        }
+
+        // theta and phi are computed from the summed counts when needed
+        ndSampleSum = DocTopicCounts.create(ndLayout, data, M, K);
+
+        return true;
+    }
+
+    /**
+     * Init z (if random) and the counts
+     */
+    protected void initCounts(boolean random)
+    {
         initSS();
 
-        for (int m = 0; m < data.M; m++){
-            if (random) {
-                z[m] = new TIntArrayList();
-            }
+        Rng rng = Rng.create(rngName, seed, 0);
 
+        for (int m = 0; m < data.M; m++){
             // initilize for z
-            int N = data.docs.get(m).length;
+            int N = data.docLength(m);
+            int start = data.docStart(m);
             for (int n = 0; n < N; n++){
-                int w = data.docs.get(m).words[n];
+                int w = data.word(m, n);
                 int topic;
 
-                // random init a topic or load existing topic from z[m]
+                // random init a topic (among the labels of labeled documents)
+                // or load existing topic from z
                 if (random) {
-                    topic = (int)Math.floor(Math.random() * K);
-                    z[m].add(topic);
+                    int[] labels = data.labels(m);
+                    topic = labels == null ? rng.nextInt(K) : labels[rng.nextInt(labels.length)];
+                    z[start + n] = topic;
                 } else {
-                    topic = z[m].get(n);
+                    topic = z[start + n];
                 }
 
-                nw[w][topic]++; // number of instances of word assigned to topic j
-                nd[m][topic]++; // number of words in document i assigned to topic j
+                nw.increment(w, topic); // number of instances of word assigned to topic j
+                nd.increment(m, topic); // number of words in document i assigned to topic j
                 nwsum[topic]++; // total number of words assigned to topic j
             }
 
             ndsum[m] = N; // total number of words in document i
         }
-
-        theta = new double[M][K];		
-        phi = new double[K][V];
-
-        return true;
     }
 
     public boolean initInf()
     {
-        nw_inf = new ArrayList<TIntObjectHashMap<int[]>>();
-
-        nwsum_inf = new int[M][K];
-        for (int m = 0; m < M; m++) {
-            for (int k = 0; k < K; k++) {
-                nwsum_inf[m][k] = 0;
-            }
-        }
+        nw_inf = new TLongIntHashMap[M];
 
         for (int m = 0; m < data.M; m++){
-            nw_inf.add(m, new TIntObjectHashMap<int[]>());
-
             // initilize for z
-            int N = data.docs.get(m).length;
+            int N = data.docLength(m);
+            int start = data.docStart(m);
+            TLongIntHashMap nw_inf_m = new TLongIntHashMap(N);
             for (int n = 0; n < N; n++){
-                int w = data.docs.get(m).words[n];
-                int topic = z[m].get(n);
-
-                if (!nw_inf.get(m).containsKey(w)) {
-                    int[] nw_inf_m_w = new int[K];
-                    for (int k = 0; k < K; k++) {
-                        nw_inf_m_w[k] = 0;
-                    }
-                    nw_inf.get(m).put(w, nw_inf_m_w);
-                }
+                long w = data.word(m, n);
+                int topic = z[start + n];
 
-                nw_inf.get(m).get(w)[topic]++; // number of instances of word assigned to topic j in doc m
-                //nw_inf[m][w][topic]++; // number of instances of word assigned to topic j in doc m
-                nwsum_inf[m][topic]++; // total number of words assigned to topic j in doc m
+                nw_inf_m.adjustOrPutValue(w * K + topic, 1, 1); // number of instances of word assigned to topic j in doc m
             }
+            nw_inf[m] = nw_inf_m;
         }
 
         return true;
@@ -257,19 +340,9 @@ public class Model {
      */
     protected void initSS()
     {
-        nw = new int[V][K];
-        for (int w = 0; w < V; w++){
-            for (int k = 0; k < K; k++){
-                nw[w][k] = 0;
-            }
-        }
+        nw = WordTopicCounts.create(nwLayout, V, K, nwAlign, wordFrequencies());
 
-        nd = new int[M][K];
-        for (int m = 0; m < M; m++){
-            for (int k = 0; k < K; k++){
-                nd[m][k] = 0;
-            }
-        }
+        nd = DocTopicCounts.create(ndLayout, data, M, K);
 
         nwsum = new int[K];
         for (int k = 0; k < K; k++){
@@ -282,6 +355,32 @@ public class Model {
         }
     }
 
+    /**
+     * Number of occurrences of every word in the data
+     */
+    protected int[] wordFrequencies()
+    {
+        int[] freq = new int[V];
+        for (int m = 0; m < data.M; m++) {
+            for (int n = 0; n < data.docLength(m); n++) {
+                freq[data.word(m, n)]++;
+            }
+        }
+        return freq;
+    }
+
+    /**
+     * Thread pool for the parallel loops over this model, created on first
+     * use and kept between calls (again if nthreads changes)
+     */
+    protected synchronized Parallel parallel()
+    {
+        if (parallel == null || parallel.nthreads != Math.max(1, nthreads)) {
+            parallel = new Parallel(nthreads);
+        }
+        return parallel;
+    }
+
     //---------------------------------------------------------------
     //	Update Methods
     //---------------------------------------------------------------
@@ -299,45 +398,231 @@ public class Model {
         numSamples++;
     }
 
+    /**
+     * Add the document-topic counts of the current sample to ndSampleSum,
+     * in parallel over documents
+     */
     public void updateTheta()
     {
-        double Kalpha = K * alpha;
-        for (int m = 0; m < M; m++) {
-            for (int k = 0; k < K; k++) {
-                if (numSamples > 1) theta[m][k] *= numSamples - 1; // convert from mean to sum
-                theta[m][k] += (nd[m][k] + alpha) / (ndsum[m] + Kalpha);
-                if (numSamples > 1) theta[m][k] /= numSamples; // convert from sum to mean
+        parallel().forRanges(M, new Parallel.Range() {
+            public void run(int t, int mStart, int mEnd)
+            {
+                int[] topics = new int[K];
+                int[] counts = new int[K];
+                for (int m = mStart; m < mEnd; m++) {
+                    int n = nd.nonZeroTopics(m, topics, counts);
+                    for (int i = 0; i < n; i++) {
+                        ndSampleSum.add(m, topics[i], counts[i]);
+                    }
+                }
             }
+        });
+    }
+
+    /**
+     * Get the topic distribution of document m, averaged over the samples
+     * taken so far
+     * @param theta_m buffer of size K
+     */
+    public void getTheta(int m, double[] theta_m)
+    {
+        int samples = numSamples - 1;
+        if (samples < 1) {
+            Arrays.fill(theta_m, 0.0);
+            return;
+        }
+
+        double Kalpha = K * alpha;
+        for (int k = 0; k < K; k++) {
+            theta_m[k] = alpha / (ndsum[m] + Kalpha);
+        }
+
+        int[] topics = new int[K];
+        int[] counts = new int[K];
+        int n = ndSampleSum.nonZeroTopics(m, topics, counts);
+        for (int i = 0; i < n; i++) {
+            theta_m[topics[i]] = ((double)counts[i] / samples + alpha) / (ndsum[m] + Kalpha);
         }
     }
 
+    /**
+     * Add the word-topic counts of the current sample to nwSampleSum, in
+     * parallel over words. Phi is only used for the top words, so nothing
+     * is summed (or allocated) if twords is 0.
+     */
     public void updatePhi()
     {
-        double Vbeta = V * beta;
+        if (twords <= 0) {
+            return;
+        }
+        if (nwSampleSum == null) {
+            nwSampleSum = new WordTopicSums(V, K);
+            nwsumSampleSum = new double[K];
+        }
+        phiVbeta = V * beta;
+
+        parallel().forRanges(V, new Parallel.Range() {
+            public void run(int t, int wStart, int wEnd)
+            {
+                int[] topics = new int[K];
+                int[] counts = new int[K];
+                double[] values = new double[K];
+                for (int w = wStart; w < wEnd; w++) {
+                    int n = nw.nonZeroTopics(w, topics, counts);
+                    for (int i = 0; i < n; i++) {
+                        values[i] = counts[i];
+                    }
+                    nwSampleSum.add(w, topics, values, n);
+                }
+            }
+        });
         for (int k = 0; k < K; k++) {
-            for (int w = 0; w < V; w++) {
-                if (numSamples > 1) phi[k][w] *= numSamples - 1; // convert from mean to sum
-                phi[k][w] += (nw[w][k] + beta) / (nwsum[k] + Vbeta);
-                if (numSamples > 1) phi[k][w] /= numSamples; // convert from sum to mean
+            nwsumSampleSum[k] += nwsum[k];
+        }
+    }
+
+    // for inference: phi of the new words is relative to the training counts plus the new counts
+    public void updatePhi(final Model trnModel)
+    {
+        if (twords <= 0) {
+            return;
+        }
+        if (nwSampleSum == null) {
+            nwSampleSum = new WordTopicSums(V, K);
+            nwsumSampleSum = new double[K];
+        }
+        phiVbeta = trnModel.V * beta;
+
+        parallel().forRanges(V, new Parallel.Range() {
+            public void run(int t, int wStart, int wEnd)
+            {
+                int[] row = new int[K];
+                int[] trnRow = new int[K];
+                int[] topics = new int[K];
+                double[] values = new double[K];
+                for (int _w = wStart; _w < wEnd; _w++) {
+                    if (data.lid2gid.containsKey(_w)) {
+                        nw.getRow(_w, row);
+                        trnModel.nw.getRow(data.lid2gid.get(_w), trnRow);
+                        int n = 0;
+                        for (int k = 0; k < K; k++) {
+                            if (trnRow[k] + row[k] != 0) {
+                                topics[n] = k;
+                                values[n++] = trnRow[k] + row[k];
+                            }
+                        }
+                        nwSampleSum.add(_w, topics, values, n);
+                    } // else ignore words that don't appear in training
+                }
             }
+        });
+        for (int k = 0; k < K; k++) {
+            nwsumSampleSum[k] += trnModel.nwsum[k] + nwsum[k];
+        }
+    }
+
+    /**
+     * phi[k][w] averaged over the samples taken so far (0 for new words
+     * that don't appear in training)
+     */
+    public double getPhi(int k, int w)
+    {
+        if (data.lid2gid != null && !data.lid2gid.containsKey(w)) {
+            return 0.0;
+        }
+        int samples = numSamples - 1;
+        return (nwSampleSum.get(w, k) / samples + beta) / (nwsumSampleSum[k] / samples + phiVbeta);
+    }
+
+    /**
+     * Topic-word distributions averaged over the samples taken so far, size
+     * K x V, or null if they weren't summed (twords is 0)
+     */
+    public double[][] getPhi()
+    {
+        if (nwSampleSum == null) {
+            return null;
         }
+        final double[][] phi = new double[K][V];
+        parallel().forRanges(K, new Parallel.Range() {
+            public void run(int t, int kStart, int kEnd)
+            {
+                for (int k = kStart; k < kEnd; k++) {
+                    for (int w = 0; w < V; w++) {
+                        phi[k][w] = getPhi(k, w);
+                    }
+                }
+            }
+        });
+        return phi;
     }
 
-    // for inference
-    public void updatePhi(Model trnModel)
+    /**
+     * Joint log-likelihood log p(w, z) of the current topic assignments,
+     * with the topics of labeled documents restricted to their labels;
+     * computed in parallel over words and documents, with the log-gamma
+     * values of small counts taken from tables built on the first call
+     */
+    public double logLikelihood()
     {
-        double Vbeta = trnModel.V * beta;
+        if (lgammaBeta == null) {
+            lgammaBeta = new SpecialFunctions.LogGammaTable(beta, 1 << 16);
+            lgammaAlpha = new SpecialFunctions.LogGammaTable(alpha, 1 << 16);
+        }
+        final SpecialFunctions.LogGammaTable lgBeta = lgammaBeta;
+        final SpecialFunctions.LogGammaTable lgAlpha = lgammaAlpha;
+        final int nranges = Math.max(1, nthreads);
+
+        // log p(w | z) = sum_k [lgamma(V beta) - lgamma(nwsum_k + V beta) + sum_w (lgamma(nw_wk + beta) - lgamma(beta))]
+        final double[] words = new double[nranges];
+        parallel().forRanges(V, new Parallel.Range() {
+            public void run(int t, int wStart, int wEnd)
+            {
+                int[] row = new int[K];
+                double sum = 0;
+                for (int w = wStart; w < wEnd; w++) {
+                    nw.getRow(w, row);
+                    for (int k = 0; k < K; k++) {
+                        if (row[k] != 0) {
+                            sum += lgBeta.get(row[k]) - lgBeta.get(0);
+                        }
+                    }
+                }
+                words[t] = sum;
+            }
+        });
+        double ll = 0;
+        double Vbeta = V * beta;
         for (int k = 0; k < K; k++) {
-            for (int _w = 0; _w < V; _w++) {
-                if (data.lid2gid.containsKey(_w)) {
-                    int id = data.lid2gid.get(_w);
+            ll += SpecialFunctions.logGamma(Vbeta) - SpecialFunctions.logGamma(nwsum[k] + Vbeta);
+        }
 
-                    if (numSamples > 1) phi[k][_w] *= numSamples - 1; // convert from mean to sum
-                    phi[k][_w] += (trnModel.nw[id][k] + nw[_w][k] + beta) / (trnModel.nwsum[k] + nwsum[k] + Vbeta);
-                    if (numSamples > 1) phi[k][_w] /= numSamples; // convert from sum to mean
-                } // else ignore words that don't appear in training
-            } //end foreach word
-        } // end foreach topic
+        // log p(z) = sum_m [lgamma(T alpha) - lgamma(ndsum_m + T alpha) + sum_k (lgamma(nd_mk + alpha) - lgamma(alpha))],
+        // with T the number of topics of document m
+        final double[] docs = new double[nranges];
+        parallel().forRanges(M, new Parallel.Range() {
+            public void run(int t, int mStart, int mEnd)
+            {
+                int[] topics = new int[K];
+                int[] counts = new int[K];
+                double sum = 0;
+                for (int m = mStart; m < mEnd; m++) {
+                    int[] labels = data.labels(m);
+                    double Talpha = (labels == null ? K : labels.length) * alpha;
+                    sum += SpecialFunctions.logGamma(Talpha) - SpecialFunctions.logGamma(ndsum[m] + Talpha);
+                    int n = nd.nonZeroTopics(m, topics, counts);
+                    for (int i = 0; i < n; i++) {
+                        sum += lgAlpha.get(counts[i]) - lgAlpha.get(0);
+                    }
+                }
+                docs[t] = sum;
+            }
+        });
+
+        for (int t = 0; t < nranges; t++) {
+            ll += words[t] + docs[t];
+        }
+        return ll;
     }
 
     //---------------------------------------------------------------
@@ -353,7 +638,7 @@ public class Model {
     }
     public boolean saveModel(String modelPrefix)
     {
-        if (!saveModelTAssign(dir + File.separator + modelPrefix + modelName + tassignSuffix)) {
+        if (!saveModelAssignments(modelPrefix)) {
             return false;
         }
 
@@ -382,6 +667,57 @@ public class Model {
         return true;
     }
 
+    /**
+     * Save what is needed to continue estimating this model with -estc:
+     * topic assignments, parameters and word map
+     */
+    public boolean saveCheckpoint()
+    {
+        if (!saveModelAssignments("")) {
+            return false;
+        }
+
+        if (!saveModelOthers(dir + File.separator + modelName + othersSuffix)) {
+            return false;
+        }
+
+        return data.localDict.writeWordMap(dir + File.separator + modelName + wordMapSuffix);
+    }
+
+    /**
+     * Save topic assignments in the format given by ckptFormat
+     */
+    protected boolean saveModelAssignments(String modelPrefix)
+    {
+        if (ckptFormat.equalsIgnoreCase("binary")) {
+            return saveModelCheckpoint(dir + File.separator + modelPrefix + modelName + checkpointSuffix);
+        }
+
+        if (!saveModelTAssign(dir + File.separator + modelPrefix + modelName + tassignSuffix)) {
+            return false;
+        }
+
+        // a checkpoint of the same model would take precedence when loading
+        new File(dir + File.separator + modelPrefix + modelName + checkpointSuffix).delete();
+        return true;
+    }
+
+    /**
+     * Save a binary checkpoint of this model
+     */
+    public boolean saveModelCheckpoint(String filename)
+    {
+        try {
+            Checkpoint.write(this, filename);
+        }
+        catch (Exception e) {
+            System.out.println("Error while saving model checkpoint: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Save word-topic assignments for this model
      */
@@ -395,8 +731,8 @@ public class Model {
 
             //write docs with topic assignments for words
             for (i = 0; i < data.M; i++) {
-                for (j = 0; j < data.docs.get(i).length; ++j) {
-                    writer.write(data.docs.get(i).words[j] + ":" + z[i].get(j) + " ");
+                for (j = 0; j < data.docLength(i); ++j) {
+                    writer.write(data.word(i, j) + ":" + z[data.docStart(i) + j] + " ");
                 }
                 writer.write("\n");
             }
@@ -420,10 +756,12 @@ public class Model {
                         new GZIPOutputStream(
                             new FileOutputStream(filename)), "UTF-8"));
 
+            double[] theta_i = new double[K];
             for (int i = 0; i < M; i++) {
+                getTheta(i, theta_i);
                 for (int j = 0; j < K; j++) {
-                    if (theta[i][j] > 0) {
-                        writer.write(j + ":" + theta[i][j] + " ");
+                    if (theta_i[j] > 0) {
+                        writer.write(j + ":" + theta_i[j] + " ");
                     }
                 }
                 writer.write("\n");
@@ -443,6 +781,10 @@ public class Model {
      */
     public boolean saveModelPhi(String filename)
     {
+        if (nwSampleSum == null) {
+            System.out.println("Phi is only computed when twords > 0");
+            return false;
+        }
         try {
             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
                         new GZIPOutputStream(
@@ -450,8 +792,9 @@ public class Model {
 
             for (int i = 0; i < K; i++) {
                 for (int j = 0; j < V; j++) {
-                    if (phi[i][j] > 0) {
-                        writer.write(j + ":" + phi[i][j] + " ");
+                    double phi_ij = getPhi(i, j);
+                    if (phi_ij > 0) {
+                        writer.write(j + ":" + phi_ij + " ");
                     }
                 }
                 writer.write("\n");
@@ -481,6 +824,10 @@ public class Model {
             writer.write("ndocs=" + M + "\n");
             writer.write("nwords=" + V + "\n");
             writer.write("liters=" + liter + "\n");
+            writer.write("seed=" + seed + "\n");
+            if (stoppedEarly) {
+                writer.write("stoppedearly=true\n");
+            }
 
             writer.close();
         }
@@ -492,6 +839,41 @@ public class Model {
         return true;
     }
 
+    /**
+     * Ids of the n most likely words of every topic, by decreasing phi
+     * (ties by increasing id), selected in parallel across topics
+     */
+    public int[][] topWords(final int n)
+    {
+        if (nwSampleSum == null) {
+            throw new IllegalStateException("Phi is only computed when twords > 0");
+        }
+        final int[][] top = new int[K][];
+        parallel().forRanges(K, new Parallel.Range() {
+            public void run(int t, int kStart, int kEnd)
+            {
+                double[] phi_k = new double[V];
+                for (int k = kStart; k < kEnd; k++) {
+                    for (int w = 0; w < V; w++) {
+                        phi_k[w] = getPhi(k, w);
+                    }
+                    top[k] = TopN.select(phi_k, n);
+                }
+            }
+        });
+        return top;
+    }
+
+    /**
+     * The n most likely topics of document m, by decreasing theta
+     */
+    public int[] topTopics(int m, int n)
+    {
+        double[] theta_m = new double[K];
+        getTheta(m, theta_m);
+        return TopN.select(theta_m, n);
+    }
+
     /**
      * Save model the most likely words for each topic
      */
@@ -505,26 +887,19 @@ public class Model {
                 twords = V;
             }
 
+            int[][] topWords = topWords(twords);
             for (int k = 0; k < K; k++){
-                ArrayList<Pair> wordsProbsList = new ArrayList<Pair>(); 
-                for (int w = 0; w < V; w++){
-                    Pair p = new Pair(w, phi[k][w], false);
-
-                    wordsProbsList.add(p);
-                }//end foreach word
-
-                //print topic				
+                //print topic
                 writer.write("Topic " + k + ":\n");
-                Collections.sort(wordsProbsList);
 
-                for (int i = 0; i < twords; i++){
-                    if (data.localDict.contains((Integer)wordsProbsList.get(i).first)){
-                        String word = data.localDict.getWord((Integer)wordsProbsList.get(i).first);
+                for (int w : topWords[k]){
+                    if (data.localDict.contains(w)){
+                        String word = data.localDict.getWord(w);
 
-                        writer.write("\t" + word + "\t" + wordsProbsList.get(i).second + "\n");
+                        writer.write("\t" + word + "\t" + getPhi(k, w) + "\n");
                     }
                 }
-            } //end foreach topic			
+            } //end foreach topic
 
             writer.close();
         }
@@ -540,11 +915,17 @@ public class Model {
      * Load saved model
      */
     public boolean loadModel(){
-        if (!readOthersFile(dir + File.separator + modelName + othersSuffix))
-            return false;
+        String checkpointFile = dir + File.separator + modelName + checkpointSuffix;
+        if (new File(checkpointFile).exists()) {
+            if (!readCheckpointFile(checkpointFile))
+                return false;
+        } else {
+            if (!readOthersFile(dir + File.separator + modelName + othersSuffix))
+                return false;
 
-        if (!readTAssignFile(dir + File.separator + modelName + tassignSuffix))
-            return false;
+            if (!readTAssignFile(dir + File.separator + modelName + tassignSuffix))
+                return false;
+        }
 
         // read dictionary
         Dictionary dict = new Dictionary();
@@ -584,15 +965,21 @@ public class Model {
                 else if (optstr.equalsIgnoreCase("ntopics")){
                     K = Integer.parseInt(optval);
                 }
-                else if (optstr.equalsIgnoreCase("liter")){
+                else if (optstr.equalsIgnoreCase("liters") || optstr.equalsIgnoreCase("liter")){
                     liter = Integer.parseInt(optval);
                 }
+                else if (optstr.equalsIgnoreCase("stoppedearly")){
+                    stoppedEarly = Boolean.parseBoolean(optval);
+                }
                 else if (optstr.equalsIgnoreCase("nwords")){
                     V = Integer.parseInt(optval);
                 }
                 else if (optstr.equalsIgnoreCase("ndocs")){
                     M = Integer.parseInt(optval);
                 }
+                else if (optstr.equalsIgnoreCase("seed")){
+                    restoreSeed(Long.parseLong(optval));
+                }
                 else {
                     // any more?
                 }
@@ -608,6 +995,34 @@ public class Model {
         return true;
     }
 
+    /**
+     * Take the seed of the saved model, unless -seed was given
+     */
+    protected void restoreSeed(long savedSeed)
+    {
+        if (randomSeed) {
+            seed = savedSeed;
+            randomSeed = false;
+            System.out.println("Random seed of the saved model: " + seed);
+        }
+    }
+
+    /**
+     * Load parameters, word-topic assignments and counts from a binary checkpoint
+     */
+    protected boolean readCheckpointFile(String checkpointFile)
+    {
+        try {
+            Checkpoint.read(this, checkpointFile, mmap);
+        }
+        catch (Exception e){
+            System.out.println("Error while loading model checkpoint: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Load word-topic assignments for this model
      */
@@ -620,9 +1035,8 @@ public class Model {
                             new FileInputStream(tassignFile)), "UTF-8"));
 
             String line;
-            z = new TIntArrayList[M];			
+            TIntArrayList topics = new TIntArrayList();
             data = new LDADataset();
-            data.setM(M);
             data.V = V;			
             for (i = 0; i < M; i++){
                 line = reader.readLine();
@@ -631,7 +1045,6 @@ public class Model {
                 int length = tknr.countTokens();
 
                 TIntArrayList words = new TIntArrayList();
-                TIntArrayList topics = new TIntArrayList();
                 for (j = 0; j < length; j++){
                     String token = tknr.nextToken();
 
@@ -645,18 +1058,15 @@ public class Model {
                     topics.add(Integer.parseInt(tknr2.nextToken()));
                 }//end for each topic assignment
 
-                //allocate and add new document to the corpus
-                Document doc = new Document(words);
-                data.setDoc(doc, i);
-
-                //assign values for z
-                z[i] = new TIntArrayList();
-                for (j = 0; j < topics.size(); j++){
-                    z[i].add(topics.get(j));
-                }
+                //add new document to the corpus
+                data.addDoc(words, null);
 
             }//end for each doc
 
+            //assign values for z
+            data.trimToSize();
+            z = topics.toArray();
+
             reader.close();
         }
         catch (Exception e){
@@ -0,0 +1,528 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Online variational Bayes for LDA (Hoffman, Blei and Bach, 2010). The data
+ * file is streamed in mini-batches of documents, and after every mini-batch
+ * the variational parameters of the topics are moved towards the estimate
+ * obtained from that mini-batch alone:
+ *
+ *   lambda = (1 - rho) * lambda + rho * (eta + D / |batch| * sstats),  rho = (tau0 + t)^-kappa
+ *
+ * Only lambda and the current mini-batch are kept in memory. The topics of
+ * labeled documents are restricted to their labels, as with the labeled
+ * sampler.
+ *
+ * The model is saved as a binary checkpoint whose word-topic counts are the
+ * expected counts lambda - eta (rounded), with no documents, so that it can
+ * be used for inference like an estimated model or continued with -estc.
+ */
+public class OnlineEstimator
+{
+    // variational inference of a document stops when the mean change of
+    // its parameters falls below docTolerance
+    protected static final int maxDocIters = 100;
+    protected static final double docTolerance = 1e-3;
+
+    // lambda is rebased when scale falls below this
+    protected static final double minScale = 1e-4;
+
+    protected LDACmdOption option;
+    protected Dictionary dict;
+    protected int K;
+    protected double alpha;
+    protected double eta;
+    protected double tau0;
+    protected double kappa;
+    protected int batchSize;
+    protected int corpusSize; // D, or 0 for the number of documents seen so far
+    protected long seed;
+    protected Rng rng;
+    protected Parallel parallel; // threads of the E-step, kept across mini-batches
+
+    // lambda[w][k] = scale * R[w][k] + eta * (1 - scale): decaying the words
+    // missing from a mini-batch is then a single update of scale
+    protected int V = 0;
+    protected double[][] R = new double[1024][];
+    protected double[] sumR;  // sumR[k] = sum_w R[w][k]
+    protected double scale = 1.0;
+    protected int updates = 0; // number of mini-batches processed (t)
+    protected long docsSeen = 0;
+
+    public OnlineEstimator(LDACmdOption option) throws FileNotFoundException, IOException
+    {
+        this.option = option;
+        batchSize = option.batchSize;
+        tau0 = option.tau0;
+        kappa = option.kappa;
+        corpusSize = option.corpusSize;
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The mini-batch size must be positive: " + batchSize);
+        }
+        if (kappa <= 0.5 || kappa > 1.0) {
+            throw new IllegalArgumentException("kappa must be in (0.5, 1]: " + kappa);
+        }
+        if (tau0 < 0.0) {
+            throw new IllegalArgumentException("tau0 must not be negative: " + tau0);
+        }
+
+        if (option.estc) {
+            resume();
+        } else {
+            K = option.K;
+            alpha = option.alpha >= 0.0 ? option.alpha : 1.0 / K;
+            eta = option.beta >= 0.0 ? option.beta : 1.0 / K;
+            dict = new Dictionary();
+            sumR = new double[K];
+            seed = option.seed;
+            if (seed == 0) {
+                // a positive int, so that it can be passed back with -seed
+                seed = 1 + new Random().nextInt(Integer.MAX_VALUE - 1);
+            }
+            System.out.println("Random seed: " + seed);
+        }
+        rng = Rng.create(option.rng, seed, 0);
+        parallel = new Parallel(option.nthreads);
+    }
+
+    /**
+     * Start from a saved model, with lambda = nw + beta
+     */
+    protected void resume() throws IOException
+    {
+        // only the saved model is needed, not the data set it was trained on
+        String dfile = option.dfile;
+        option.dfile = "";
+        Model model;
+        try {
+            model = new Model(option);
+        } finally {
+            option.dfile = dfile;
+        }
+        if (!model.init(false)) {
+            throw new IOException("Cannot load model " + option.modelName);
+        }
+
+        K = model.K;
+        alpha = option.alpha >= 0.0 ? option.alpha : model.alpha;
+        eta = option.beta >= 0.0 ? option.beta : model.beta;
+        dict = model.data.localDict;
+        seed = model.seed;
+        updates = model.liter;
+        docsSeen = (long) updates * batchSize;
+
+        sumR = new double[K];
+        int[] row = new int[K];
+        for (int w = 0; w < model.V; w++) {
+            model.nw.getRow(w, row);
+            double[] r = newWord();
+            for (int k = 0; k < K; k++) {
+                r[k] = row[k] + eta;
+                sumR[k] += r[k];
+            }
+        }
+    }
+
+    public void estimate() throws IOException
+    {
+        String filename = option.dir + File.separator + option.dfile;
+        if (LDADataset.isBinaryDataSet(filename)) {
+            throw new IllegalArgumentException("Online estimation reads text data files only: " + filename);
+        }
+
+        System.out.format("Online estimation of %d topics, %d pass(es) over %s in mini-batches of %d documents%n",
+                K, option.npasses, filename, batchSize);
+        long ntokens = 0;
+        long ndocs = 0;
+        int startUpdates = updates;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < option.npasses; pass++) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(
+                            new FileInputStream(filename)), "UTF-8"));
+            try {
+                LDADataset batch;
+                while ((batch = readBatch(reader)) != null) {
+                    update(batch);
+                    ntokens += batch.numTokens();
+                    ndocs += batch.M;
+
+                    if (option.saveStep > 0 && updates % option.saveStep == 0) {
+                        System.out.format("Mini-batch %d, %d documents, rho=%.5f: saving the model%n",
+                                updates, ndocs, rho(updates));
+                        if (!save()) {
+                            throw new IOException("Cannot save model " + option.modelName);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.format("Processed %d documents, %d tokens in %d mini-batches in %.2fs (%.0f tokens/s, %d thread(s)), V=%d%n",
+                ndocs, ntokens, updates - startUpdates, seconds, ntokens / seconds,
+                Math.max(1, option.nthreads), V);
+
+        System.out.println("Saving the final model!");
+        if (!save()) {
+            throw new IOException("Cannot save model " + option.modelName);
+        }
+    }
+
+    /**
+     * The next batchSize documents of reader, with word ids from the
+     * shared dictionary, or null at the end of the file
+     */
+    protected LDADataset readBatch(BufferedReader reader) throws IOException
+    {
+        LDADataset batch = new LDADataset();
+        batch.localDict = dict;
+        String line;
+        while (batch.M < batchSize && (line = reader.readLine()) != null) {
+            batch.addDoc(line, option.unlabeled);
+        }
+        if (batch.M == 0) {
+            return null;
+        }
+        while (V < dict.word2id.size()) {
+            double[] r = newWord();
+            for (int k = 0; k < K; k++) {
+                // lambda around 1, which also breaks the symmetry between topics
+                r[k] = (0.9 + 0.2 * rng.nextDouble() - eta * (1.0 - scale)) / scale;
+                sumR[k] += r[k];
+            }
+        }
+        return batch;
+    }
+
+    protected double[] newWord()
+    {
+        if (V == R.length) {
+            R = Arrays.copyOf(R, R.length + (R.length >> 1));
+        }
+        return R[V++] = new double[K];
+    }
+
+    protected double rho(int t)
+    {
+        return Math.pow(tau0 + t, -kappa);
+    }
+
+    /**
+     * Variational inference of the documents of batch against the current
+     * lambda, and update of lambda with their expected word-topic counts
+     */
+    protected void update(final LDADataset batch)
+    {
+        // the distinct words of the batch, with local ids
+        final TIntIntHashMap local = new TIntIntHashMap();
+        final int[][] docWords = new int[batch.M][];
+        final int[][] docCounts = new int[batch.M][];
+        int[] words = new int[16];
+        int[] lastDoc = new int[16];
+        int[] pos = new int[16];
+        for (int m = 0; m < batch.M; m++) {
+            int N = batch.docLength(m);
+            int[] ids = new int[N];
+            int[] cts = new int[N];
+            int n = 0;
+            for (int i = 0; i < N; i++) {
+                int w = batch.word(m, i);
+                int j = local.size();
+                if (local.containsKey(w)) {
+                    j = local.get(w);
+                } else {
+                    local.put(w, j);
+                    if (j == words.length) {
+                        words = Arrays.copyOf(words, 2 * j);
+                        lastDoc = Arrays.copyOf(lastDoc, 2 * j);
+                        pos = Arrays.copyOf(pos, 2 * j);
+                    }
+                    words[j] = w;
+                    lastDoc[j] = -1;
+                }
+                if (lastDoc[j] != m) {
+                    lastDoc[j] = m;
+                    pos[j] = n;
+                    ids[n] = j;
+                    cts[n++] = 0;
+                }
+                cts[pos[j]]++;
+            }
+            docWords[m] = Arrays.copyOf(ids, n);
+            docCounts[m] = Arrays.copyOf(cts, n);
+        }
+        final int nb = local.size();
+
+        // expElogbeta[j][k] = exp(E[log beta_kw]) = exp(SpecialFunctions.digamma(lambda_kw) - SpecialFunctions.digamma(sum_w lambda_kw))
+        double[] digammaSum = new double[K];
+        for (int k = 0; k < K; k++) {
+            digammaSum[k] = SpecialFunctions.digamma(scale * sumR[k] + eta * (1.0 - scale) * V);
+        }
+        final double[][] expElogbeta = new double[nb][K];
+        for (int j = 0; j < nb; j++) {
+            double[] r = R[words[j]];
+            for (int k = 0; k < K; k++) {
+                expElogbeta[j][k] = Math.exp(SpecialFunctions.digamma(scale * r[k] + eta * (1.0 - scale)) - digammaSum[k]);
+            }
+        }
+
+        // E-step, with the documents split across threads
+        final int nthreads = Math.max(1, Math.min(option.nthreads, batch.M));
+        final double[][] sstats = new double[nthreads][];
+        parallel.forRanges(batch.M, new Parallel.Range() {
+            public void run(int t, int start, int end)
+            {
+                double[] ss = sstats[t] = new double[nb * K];
+                int[] topics = new int[K];
+                double[] gamma = new double[K];
+                double[] expElogtheta = new double[K];
+                double[] phinorm = new double[0];
+                for (int m = start; m < end; m++) {
+                    int[] ids = docWords[m];
+                    int[] cts = docCounts[m];
+                    if (phinorm.length < ids.length) {
+                        phinorm = new double[ids.length];
+                    }
+                    int ntopics = topicsOf(batch.labels(m), topics);
+                    inferDocument(ids, cts, topics, ntopics, expElogbeta, gamma, expElogtheta, phinorm);
+
+                    // expected counts: sstats[w][k] += cts[w] * expElogtheta[k] * expElogbeta[w][k] / phinorm[w]
+                    for (int i = 0; i < ids.length; i++) {
+                        double[] eb = expElogbeta[ids[i]];
+                        int base = ids[i] * K;
+                        double c = cts[i] / phinorm[i];
+                        for (int ti = 0; ti < ntopics; ti++) {
+                            int k = topics[ti];
+                            ss[base + k] += c * expElogtheta[ti] * eb[k];
+                        }
+                    }
+                }
+            }
+        });
+
+        // M-step: lambda = (1 - rho) * lambda + rho * (eta + D / |batch| * sstats),
+        // i.e., scale *= 1 - rho and R += rho * D / |batch| * sstats / scale
+        docsSeen += batch.M;
+        updates++;
+        double rho = rho(updates);
+        scale *= 1.0 - rho;
+        double D = corpusSize > 0 ? corpusSize : docsSeen;
+        double weight = rho * D / batch.M / scale;
+        for (int j = 0; j < nb; j++) {
+            double[] r = R[words[j]];
+            for (int k = 0; k < K; k++) {
+                double s = 0;
+                for (int t = 0; t < nthreads; t++) {
+                    s += sstats[t][j * K + k];
+                }
+                r[k] += weight * s;
+                sumR[k] += weight * s;
+            }
+        }
+        if (scale < minScale) {
+            rebase();
+        }
+    }
+
+    /**
+     * Topics a document may be assigned to: its labels in [0, K), or all of
+     * them if it has none
+     */
+    protected int topicsOf(int[] labels, int[] topics)
+    {
+        int n = 0;
+        if (labels != null) {
+            for (int label : labels) {
+                if (label >= 0 && label < K) {
+                    topics[n++] = label;
+                }
+            }
+        }
+        if (n == 0) {
+            for (int k = 0; k < K; k++) {
+                topics[k] = k;
+            }
+            n = K;
+        }
+        return n;
+    }
+
+    /**
+     * Fit the variational parameters gamma of one document (distinct local
+     * word ids with counts) over the given topics; on return, expElogtheta
+     * and phinorm hold the values the expected counts are computed from
+     */
+    protected void inferDocument(int[] ids, int[] cts, int[] topics, int ntopics, double[][] expElogbeta,
+            double[] gamma, double[] expElogtheta, double[] phinorm)
+    {
+        int N = 0;
+        for (int i = 0; i < ids.length; i++) {
+            N += cts[i];
+        }
+        for (int ti = 0; ti < ntopics; ti++) {
+            gamma[ti] = alpha + (double) N / ntopics;
+        }
+
+        for (int iter = 0; iter < maxDocIters; iter++) {
+            // the digamma of the sum of gamma cancels out in the normalization
+            for (int ti = 0; ti < ntopics; ti++) {
+                expElogtheta[ti] = Math.exp(SpecialFunctions.digamma(gamma[ti]));
+            }
+            for (int i = 0; i < ids.length; i++) {
+                double[] eb = expElogbeta[ids[i]];
+                double norm = 1e-100;
+                for (int ti = 0; ti < ntopics; ti++) {
+                    norm += expElogtheta[ti] * eb[topics[ti]];
+                }
+                phinorm[i] = norm;
+            }
+
+            double change = 0;
+            for (int ti = 0; ti < ntopics; ti++) {
+                int k = topics[ti];
+                double s = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    s += cts[i] * expElogbeta[ids[i]][k] / phinorm[i];
+                }
+                double g = alpha + expElogtheta[ti] * s;
+                change += Math.abs(g - gamma[ti]);
+                gamma[ti] = g;
+            }
+            if (change / ntopics < docTolerance) {
+                break;
+            }
+        }
+
+        for (int ti = 0; ti < ntopics; ti++) {
+            expElogtheta[ti] = Math.exp(SpecialFunctions.digamma(gamma[ti]));
+        }
+        for (int i = 0; i < ids.length; i++) {
+            double[] eb = expElogbeta[ids[i]];
+            double norm = 1e-100;
+            for (int ti = 0; ti < ntopics; ti++) {
+                norm += expElogtheta[ti] * eb[topics[ti]];
+            }
+            phinorm[i] = norm;
+        }
+    }
+
+    /**
+     * Fold scale into R, so that lambda = R
+     */
+    protected void rebase()
+    {
+        Arrays.fill(sumR, 0.0);
+        for (int w = 0; w < V; w++) {
+            double[] r = R[w];
+            for (int k = 0; k < K; k++) {
+                r[k] = scale * r[k] + eta * (1.0 - scale);
+                sumR[k] += r[k];
+            }
+        }
+        scale = 1.0;
+    }
+
+    /**
+     * Save the model in the layout of estimated models: a binary checkpoint
+     * with the expected counts, the others file, the top words (from the
+     * exact expected counts) and the word map
+     */
+    public boolean save()
+    {
+        Model model = toModel();
+        String prefix = model.dir + File.separator + model.modelName;
+        if (!model.saveModelCheckpoint(prefix + Model.checkpointSuffix)) {
+            return false;
+        }
+        if (!model.saveModelOthers(prefix + Model.othersSuffix)) {
+            return false;
+        }
+        if (model.twords > 0 && !model.saveModelTwords(prefix + Model.twordsSuffix)) {
+            return false;
+        }
+        return dict.writeWordMap(prefix + Model.wordMapSuffix);
+    }
+
+    /**
+     * The current topics as a model without documents, whose word-topic
+     * counts are lambda - eta rounded to integers and whose phi is the
+     * posterior mean lambda / sum_w lambda
+     */
+    protected Model toModel()
+    {
+        Model model = new Model();
+        model.dir = option.dir;
+        if (model.dir.endsWith(File.separator))
+            model.dir = model.dir.substring(0, model.dir.length() - 1);
+        model.modelName = option.modelName;
+        model.twords = option.twords;
+        model.nthreads = option.nthreads;
+        model.nwLayout = option.nwLayout;
+        model.nwAlign = option.nwAlign;
+        model.data = new LDADataset();
+        model.K = K;
+        model.V = V;
+        model.M = 0;
+        model.alpha = alpha;
+        model.beta = eta;
+        model.liter = updates;
+        model.seed = seed;
+        model.data.localDict = dict;
+        model.data.V = V;
+        model.z = new int[0];
+        model.nd = DocTopicCounts.create(model.ndLayout, model.data, 0, K);
+        model.ndsum = new int[0];
+
+        // expected counts lambda - eta = scale * (R - eta)
+        WordTopicSums counts = new WordTopicSums(V, K);
+        int[][] rounded = new int[V][K];
+        int[] freq = new int[V];
+        model.nwsum = new int[K];
+        model.nwsumSampleSum = new double[K];
+        int[] topics = new int[K];
+        double[] values = new double[K];
+        for (int w = 0; w < V; w++) {
+            int n = 0;
+            for (int k = 0; k < K; k++) {
+                double c = Math.max(0.0, scale * (R[w][k] - eta));
+                if (c > 0) {
+                    topics[n] = k;
+                    values[n++] = c;
+                }
+                rounded[w][k] = (int) Math.round(c);
+                freq[w] += rounded[w][k];
+                model.nwsum[k] += rounded[w][k];
+                model.nwsumSampleSum[k] += c;
+            }
+            counts.add(w, topics, values, n);
+        }
+        model.nw = WordTopicCounts.create(model.nwLayout, V, K, model.nwAlign, freq);
+        for (int w = 0; w < V; w++) {
+            for (int k = 0; k < K; k++) {
+                if (rounded[w][k] != 0) {
+                    model.nw.set(w, k, rounded[w][k]);
+                }
+            }
+        }
+
+        // a single sample, so that getPhi() is (counts + eta) / (sum + V * eta)
+        model.nwSampleSum = counts;
+        model.numSamples = 2;
+        model.phiVbeta = V * eta;
+        return model;
+    }
+}
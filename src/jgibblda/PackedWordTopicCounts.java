@@ -0,0 +1,110 @@
+package jgibblda;
+
+/**
+ * Word-topic counts stored as 16-bit values in a single char[], one
+ * (optionally padded) row per word. A count can never exceed the number of
+ * occurrences of its word, so only words that occur more than 65535 times
+ * need wider counts; their rows are kept separately as int[] rows.
+ */
+public class PackedWordTopicCounts extends WordTopicCounts
+{
+    public static final int MAX_PACKED_COUNT = Character.MAX_VALUE;
+
+    private final int stride;
+    private final char[] nw;
+
+    // index into wideRows for words with more than MAX_PACKED_COUNT occurrences, or -1
+    private final int[] wideIndex;
+    private final int[][] wideRows;
+
+    public PackedWordTopicCounts(int V, int K, int align, int[] wordFreq)
+    {
+        super(V, K);
+        stride = stride(K, 2, align);
+        nw = new char[flatSize(V, stride)];
+
+        wideIndex = new int[V];
+        int nwide = 0;
+        for (int w = 0; w < V; w++) {
+            wideIndex[w] = wordFreq != null && wordFreq[w] > MAX_PACKED_COUNT ? nwide++ : -1;
+        }
+        wideRows = new int[nwide][K];
+    }
+
+    private PackedWordTopicCounts(PackedWordTopicCounts other)
+    {
+        super(other.V, other.K);
+        stride = other.stride;
+        nw = other.nw.clone();
+        wideIndex = other.wideIndex;
+        wideRows = new int[other.wideRows.length][];
+        for (int i = 0; i < wideRows.length; i++) {
+            wideRows[i] = other.wideRows[i].clone();
+        }
+    }
+
+    public int get(int w, int k)
+    {
+        int i = wideIndex[w];
+        return i < 0 ? nw[w * stride + k] : wideRows[i][k];
+    }
+
+    public void set(int w, int k, int count)
+    {
+        int i = wideIndex[w];
+        if (i < 0) {
+            nw[w * stride + k] = (char)count;
+        } else {
+            wideRows[i][k] = count;
+        }
+    }
+
+    public void add(int w, int k, int delta)
+    {
+        int i = wideIndex[w];
+        if (i < 0) {
+            nw[w * stride + k] += delta;
+        } else {
+            wideRows[i][k] += delta;
+        }
+    }
+
+    public void getRow(int w, int[] row)
+    {
+        int i = wideIndex[w];
+        if (i >= 0) {
+            System.arraycopy(wideRows[i], 0, row, 0, K);
+            return;
+        }
+        int offset = w * stride;
+        for (int k = 0; k < K; k++) {
+            row[k] = nw[offset + k];
+        }
+    }
+
+    public int nonZeroTopics(int w, int[] topics, int[] counts)
+    {
+        if (wideIndex[w] >= 0) {
+            return super.nonZeroTopics(w, topics, counts);
+        }
+        int offset = w * stride;
+        int size = 0;
+        for (int k = 0; k < K; k++) {
+            if (nw[offset + k] != 0) {
+                topics[size] = k;
+                counts[size++] = nw[offset + k];
+            }
+        }
+        return size;
+    }
+
+    public WordTopicCounts copy()
+    {
+        return new PackedWordTopicCounts(this);
+    }
+
+    public long sizeInBytes()
+    {
+        return 16 + 2L * nw.length + 16 + 4L * V + wideRows.length * (16 + 4L * K);
+    }
+}
@@ -33,7 +33,7 @@ import java.util.Comparator;
 public class Pair implements Comparable<Pair> {
     public Object first;
     public Comparable second;
-    public static boolean naturalOrder = false;
+    public boolean naturalOrder = false;
 
     public Pair(Object k, Comparable v){
         first = k;
@@ -43,7 +43,7 @@ public class Pair implements Comparable<Pair> {
     public Pair(Object k, Comparable v, boolean naturalOrder){
         first = k;
         second = v;
-        Pair.naturalOrder = naturalOrder; 
+        this.naturalOrder = naturalOrder;
     }
 
     public int compareTo(Pair p){
@@ -0,0 +1,122 @@
+package jgibblda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a loop over [0, n) split into contiguous ranges, one per thread.
+ * An instance keeps its pool of nthreads threads between loops, so that
+ * owners running many short loops (a model, an estimator) don't start new
+ * threads every time; idle threads exit after a minute, and are daemons,
+ * so the pool doesn't need to be shut down.
+ */
+class Parallel
+{
+    interface Range
+    {
+        /**
+         * Process [start, end); t is the index of the range
+         */
+        void run(int t, int start, int end);
+    }
+
+    protected final int nthreads;
+    private ThreadPoolExecutor executor = null;
+
+    public Parallel(int nthreads)
+    {
+        this.nthreads = Math.max(1, nthreads);
+    }
+
+    /**
+     * Pool of nthreads threads, created on first use
+     */
+    public synchronized ExecutorService executor()
+    {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(nthreads, nthreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private int count = 0;
+
+                        public synchronized Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "jgibblda-parallel-" + (++count));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Run body over [0, n) with up to nthreads ranges on the pool and wait
+     * for all of them; with a single range, body runs on the calling thread
+     */
+    public void forRanges(final int n, final Range body)
+    {
+        int nranges = Math.max(1, Math.min(nthreads, n));
+        if (nranges == 1) {
+            body.run(0, 0, n);
+            return;
+        }
+
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < nranges; t++) {
+                final int range = t;
+                final int start = (int)((long)n * t / nranges);
+                final int end = (int)((long)n * (t + 1) / nranges);
+                futures.add(executor().submit(new Callable<Void>() {
+                    public Void call()
+                    {
+                        body.run(range, start, end);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running in parallel", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error in parallel task: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Run body over [0, n) with up to nthreads threads of a pool of its own,
+     * for one-off loops
+     */
+    public static void forRanges(int nthreads, final int n, final Range body)
+    {
+        Parallel parallel = new Parallel(Math.min(nthreads, n));
+        try {
+            parallel.forRanges(n, body);
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    /**
+     * Stop the threads of the pool once they are idle
+     */
+    public synchronized void shutdown()
+    {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
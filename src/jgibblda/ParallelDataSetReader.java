@@ -0,0 +1,219 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Reads a text dataset in a pipeline: one thread decompresses and reads
+ * lines, a pool of threads splits batches of lines into words and labels,
+ * and the calling thread assigns word ids batch by batch, in file order.
+ * Each batch numbers its distinct words in order of first occurrence, so
+ * the dictionary is only looked up once per distinct word and batch, and
+ * word ids are the same as when reading the file sequentially.
+ */
+class ParallelDataSetReader
+{
+    // documents per batch
+    protected static final int BATCH_SIZE = 512;
+
+    /**
+     * Words and labels of a batch of consecutive documents
+     */
+    static class Batch implements Callable<Batch>
+    {
+        protected final int firstDoc;   // number of the first document of the batch
+        protected final boolean unlabeled;
+        protected final boolean keepRawText;
+        protected ArrayList<String> lines = new ArrayList<String>(BATCH_SIZE);
+
+        // distinct words of the batch, in order of first occurrence
+        protected ArrayList<String> vocab = new ArrayList<String>();
+        protected TIntArrayList words = new TIntArrayList();   // words as indices into vocab
+        protected int[] docEnds;            // end of each document in words
+        protected TIntArrayList[] labels;   // labels of each document, or null
+        protected String[] rawStrs;         // raw text of each document (only if keepRawText)
+
+        Batch(int firstDoc, boolean unlabeled, boolean keepRawText)
+        {
+            this.firstDoc = firstDoc;
+            this.unlabeled = unlabeled;
+            this.keepRawText = keepRawText;
+        }
+
+        public Batch call()
+        {
+            TObjectIntHashMap<String> index = new TObjectIntHashMap<String>(1024, 0.5f, -1);
+            docEnds = new int[lines.size()];
+            labels = new TIntArrayList[lines.size()];
+            rawStrs = keepRawText ? new String[lines.size()] : null;
+
+            for (int d = 0; d < lines.size(); d++) {
+                String str = lines.get(d);
+
+                // read document labels (if provided)
+                if (str.startsWith("[")) {
+                    String[] labelsBoundary = str.
+                        substring(1). // remove initial '['
+                        split("]", 2); // separate labels and str between ']'
+                    str = labelsBoundary[1].trim();
+
+                    // parse labels (unless we're ignoring the labels)
+                    if (!unlabeled) {
+                        labels[d] = LDADataset.parseLabels(labelsBoundary[0], firstDoc + d);
+                    }
+                }
+
+                for (String word : LDADataset.WHITESPACE.split(str)) {
+                    if (word.trim().equals("")) {
+                        continue;
+                    }
+
+                    int i = index.get(word);
+                    if (i < 0) {
+                        i = vocab.size();
+                        index.put(word, i);
+                        vocab.add(word);
+                    }
+                    words.add(i);
+                }
+
+                docEnds[d] = words.size();
+                if (keepRawText) {
+                    rawStrs[d] = str;
+                }
+            }
+
+            lines = null;
+            return this;
+        }
+    }
+
+    /**
+     * Read all documents of reader into data, using nthreads threads to
+     * split documents into words
+     */
+    static void read(final LDADataset data, final BufferedReader reader, final boolean unlabeled, int nthreads) throws IOException
+    {
+        // daemon threads, so that a failed read can't keep the JVM alive
+        final ExecutorService pool = Executors.newFixedThreadPool(nthreads + 1, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "dataset-reader-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // parsed batches in file order, bounded to limit the memory held by the pipeline
+        final BlockingQueue<Future<Batch>> batches = new ArrayBlockingQueue<Future<Batch>>(4 * nthreads);
+        final FutureTask<Batch> end = new FutureTask<Batch>(new Callable<Batch>() {
+            public Batch call()
+            {
+                return null;
+            }
+        });
+        end.run();
+
+        Future<Void> readerResult = pool.submit(new Callable<Void>() {
+            public Void call() throws IOException, InterruptedException
+            {
+                boolean done = false;
+                try {
+                    int numDocs = 0;
+                    Batch batch = new Batch(numDocs, unlabeled, data.keepRawText);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        batch.lines.add(line);
+                        numDocs++;
+                        if (batch.lines.size() == BATCH_SIZE) {
+                            batches.put(pool.submit(batch));
+                            batch = new Batch(numDocs, unlabeled, data.keepRawText);
+                        }
+                    }
+                    if (!batch.lines.isEmpty()) {
+                        batches.put(pool.submit(batch));
+                    }
+                    batches.put(end);
+                    done = true;
+                } finally {
+                    if (!done) {
+                        // the consumer may have stopped on an error of its own
+                        // (and interrupted us): don't wait for room in the queue
+                        batches.clear();
+                        batches.offer(end);
+                    }
+                }
+                return null;
+            }
+        });
+
+        try {
+            Future<Batch> next;
+            while ((next = batches.take()) != end) {
+                addBatch(data, next.get());
+            }
+            readerResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading dataset", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Error while reading dataset: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Assign word ids to the words of a batch and add its documents
+     */
+    protected static void addBatch(LDADataset data, Batch batch)
+    {
+        // local id of every distinct word of the batch, or -1 if it isn't
+        // in the global dictionary
+        int[] ids = new int[batch.vocab.size()];
+        for (int i = 0; i < ids.length; i++) {
+            String word = batch.vocab.get(i);
+            if (data.globalDict != null) {
+                if (!data.globalDict.contains(word)) {
+                    ids[i] = -1;
+                    continue;
+                }
+                ids[i] = data.localDict.addWord(word);
+                data.lid2gid.put(ids[i], data.globalDict.getID(word));
+            } else {
+                ids[i] = data.localDict.addWord(word);
+            }
+        }
+
+        int n = 0;
+        for (int d = 0; d < batch.docEnds.length; d++) {
+            for (; n < batch.docEnds[d]; n++) {
+                int id = ids[batch.words.get(n)];
+                if (id >= 0) {
+                    data.addWord(id);
+                }
+            }
+            data.endDoc(batch.labels[d], batch.rawStrs != null ? batch.rawStrs[d] : null);
+        }
+
+        data.V = data.localDict.word2id.size();
+    }
+}
@@ -0,0 +1,299 @@
+package jgibblda;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Held-out perplexity of documents under a trained model,
+ * exp(-log p(held-out words) / number of held-out words), by one of:
+ *
+ *   completion  - document completion: theta is inferred by the
+ *                 InferenceEngine from the first half of the known words
+ *                 of every document, and the second half is scored with
+ *                 p(w) = sum_k theta_k phi_kw
+ *   lefttoright - the left-to-right estimate of Wallach et al. (2009) of
+ *                 p(w) for all the known words, with nparticles particles
+ *                 sampled against the frozen phi of the model; it costs
+ *                 O(nparticles x N^2) per document of N words
+ *
+ * Words missing from the training dictionary are skipped, and documents
+ * with fewer than two known words are left out. The topics of labeled
+ * documents are restricted to their labels.
+ *
+ * The data file is streamed in batches of batchSize documents, each split
+ * across nthreads threads, so memory doesn't depend on the number of
+ * documents. Every document is sampled from a seed of its own (see
+ * InferenceEngine), so results don't depend on the number of threads.
+ */
+public class PerplexityEvaluator
+{
+    protected final InferenceEngine engine;
+    protected final FrozenPhi phi;
+    protected final int K;
+
+    public String method = "completion";
+    public int nparticles = 20;  // particles of the left-to-right estimate
+    public int batchSize = 1024; // documents read at a time
+    public int nthreads = 1;
+    public boolean unlabeled = false;
+
+    // totals of the documents evaluated so far
+    public long ndocs = 0;        // documents scored
+    public long nskipped = 0;     // documents with fewer than two known words
+    public long ntokens = 0;      // held-out words scored
+    public long nunknown = 0;     // words missing from the training dictionary
+    public double logLikelihood = 0;
+
+    /**
+     * Totals of one range of a batch
+     */
+    protected static class Totals
+    {
+        long ndocs, nskipped, ntokens, nunknown;
+        double logLikelihood;
+    }
+
+    /**
+     * @param engine inference engine of the trained model, whose mode
+     * (gibbs, phi or em), number of iterations and seed are used for
+     * document completion
+     */
+    public PerplexityEvaluator(InferenceEngine engine)
+    {
+        this.engine = engine;
+        K = engine.getK();
+        phi = engine.phi != null ? engine.phi : new FrozenPhi(engine.trnModel);
+    }
+
+    public double perplexity()
+    {
+        return Math.exp(-logLikelihood / ntokens);
+    }
+
+    /**
+     * Evaluate the documents of a gzipped data file in the input format;
+     * returns the perplexity of all the documents evaluated so far
+     */
+    public double evaluate(String filename) throws IOException
+    {
+        if (LDADataset.isBinaryDataSet(filename)) {
+            throw new IllegalArgumentException("Perplexity is evaluated on text data files only: " + filename);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(
+                        new FileInputStream(filename)), "UTF-8"));
+        try {
+            return evaluate(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Evaluate the documents of reader, one per line
+     */
+    public double evaluate(BufferedReader reader) throws IOException
+    {
+        if (!method.equals("completion") && !method.equals("lefttoright")) {
+            throw new IllegalArgumentException("Unknown evaluation method: " + method);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        if (method.equals("lefttoright") && nparticles < 1) {
+            throw new IllegalArgumentException("The number of particles must be positive: " + nparticles);
+        }
+
+        final String[] batch = new String[batchSize];
+        final Totals[] totals = new Totals[Math.max(1, nthreads)];
+
+        // one pool for all the batches
+        Parallel parallel = new Parallel(nthreads);
+        try {
+            while (true) {
+                int n = 0;
+                String line;
+                while (n < batchSize && (line = reader.readLine()) != null) {
+                    batch[n++] = line;
+                }
+                if (n == 0) {
+                    break;
+                }
+
+                // lines are parsed by the threads too
+                parallel.forRanges(n, new Parallel.Range() {
+                    public void run(int t, int start, int end)
+                    {
+                        Totals sums = new Totals();
+                        for (int m = start; m < end; m++) {
+                            evaluateDocument(batch[m], sums);
+                        }
+                        totals[t] = sums;
+                    }
+                });
+
+                for (int t = 0; t < totals.length; t++) {
+                    if (totals[t] != null) {
+                        ndocs += totals[t].ndocs;
+                        nskipped += totals[t].nskipped;
+                        ntokens += totals[t].ntokens;
+                        nunknown += totals[t].nunknown;
+                        logLikelihood += totals[t].logLikelihood;
+                        totals[t] = null;
+                    }
+                }
+                Arrays.fill(batch, 0, n, null);
+            }
+        } finally {
+            parallel.shutdown();
+        }
+        return perplexity();
+    }
+
+    /**
+     * Score one document in the input data format into sums
+     */
+    protected void evaluateDocument(String doc, Totals sums)
+    {
+        int[] labels = null;
+        if (doc.startsWith("[")) {
+            String[] labelsBoundary = doc.substring(1).split("]", 2);
+            if (!unlabeled) {
+                // labels the model doesn't have are ignored
+                labels = engine.knownLabels(LDADataset.parseLabels(labelsBoundary[0], 0).toArray());
+            }
+            doc = labelsBoundary.length > 1 ? labelsBoundary[1].trim() : "";
+        }
+
+        String[] tokens = LDADataset.WHITESPACE.split(doc);
+        int[] ids = new int[tokens.length];
+        int N = 0;
+        for (String token : tokens) {
+            if (!token.trim().equals("")) {
+                int id = engine.wordId(token);
+                if (id >= 0) {
+                    ids[N++] = id;
+                } else {
+                    sums.nunknown++;
+                }
+            }
+        }
+        if (N < 2) {
+            sums.nskipped++;
+            return;
+        }
+
+        sums.ndocs++;
+        if (method.equals("completion")) {
+            sums.logLikelihood += completion(ids, N, labels);
+            sums.ntokens += N - N / 2;
+        } else {
+            sums.logLikelihood += leftToRight(ids, N, labels);
+            sums.ntokens += N;
+        }
+    }
+
+    /**
+     * log p(ids[N/2..N) | theta inferred from ids[0..N/2))
+     */
+    protected double completion(int[] ids, int N, int[] labels)
+    {
+        double[] theta = new double[K];
+        engine.infer(ids, N / 2, labels, theta);
+
+        // theta restricted to the labels, renormalized
+        int K_m = labels == null ? K : labels.length;
+        double norm = 0;
+        for (int k = 0; k < K_m; k++) {
+            norm += theta[labels == null ? k : labels[k]];
+        }
+
+        double ll = 0;
+        for (int n = N / 2; n < N; n++) {
+            float[] phi_w = phi.row(ids[n]);
+            double p = 0;
+            for (int k = 0; k < K_m; k++) {
+                int topic = labels == null ? k : labels[k];
+                p += theta[topic] * phi_w[topic];
+            }
+            ll += Math.log(p / norm);
+        }
+        return ll;
+    }
+
+    /**
+     * Left-to-right estimate of log p(ids[0..N)): for every particle and
+     * position n, the topics of the earlier words are resampled, p(w_n |
+     * w_<n) is accumulated from their counts, and z_n is sampled
+     */
+    protected double leftToRight(int[] ids, int N, int[] labels)
+    {
+        int K_m = labels == null ? K : labels.length;
+        double alpha = engine.alpha;
+        double Kalpha = K_m * alpha;
+
+        long hash = 0;
+        for (int n = 0; n < N; n++) {
+            hash = hash * 31 + ids[n];
+        }
+        Rng rng = Rng.create(engine.rngName, engine.seed ^ (hash * 0x9e3779b97f4a7c15L), 0);
+
+        int[] z = new int[N];
+        int[] nd = new int[K];
+        double[] p = new double[K_m];
+        double[] pw = new double[N]; // sum over the particles of p(w_n | w_<n)
+
+        for (int r = 0; r < nparticles; r++) {
+            Arrays.fill(nd, 0);
+            for (int n = 0; n < N; n++) {
+                // resample the topics of the earlier words
+                for (int i = 0; i < n; i++) {
+                    nd[z[i]]--;
+                    z[i] = sampleTopic(phi.row(ids[i]), nd, alpha, labels, K_m, p, rng);
+                    nd[z[i]]++;
+                }
+
+                float[] phi_w = phi.row(ids[n]);
+                double sum = 0;
+                for (int k = 0; k < K_m; k++) {
+                    int topic = labels == null ? k : labels[k];
+                    sum += (nd[topic] + alpha) * phi_w[topic];
+                }
+                pw[n] += sum / (n + Kalpha);
+
+                z[n] = sampleTopic(phi_w, nd, alpha, labels, K_m, p, rng);
+                nd[z[n]]++;
+            }
+        }
+
+        double ll = 0;
+        for (int n = 0; n < N; n++) {
+            ll += Math.log(pw[n] / nparticles);
+        }
+        return ll;
+    }
+
+    /**
+     * Sample a topic from (nd + alpha) * phi_w over the allowed topics
+     */
+    private static int sampleTopic(float[] phi_w, int[] nd, double alpha, int[] labels, int K_m,
+            double[] p, Rng rng)
+    {
+        double sum = 0;
+        for (int k = 0; k < K_m; k++) {
+            int topic = labels == null ? k : labels[k];
+            sum += (nd[topic] + alpha) * phi_w[topic];
+            p[k] = sum;
+        }
+        double u = rng.nextDouble() * sum;
+        int k = 0;
+        while (k < K_m - 1 && p[k] <= u) {
+            k++;
+        }
+        return labels == null ? k : labels[k];
+    }
+}
@@ -0,0 +1,129 @@
+package jgibblda;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fast, seedable, non-thread-safe random number generator used by the
+ * samplers. Every sampling thread gets its own stream, so that runs are
+ * reproducible for a given seed and number of threads.
+ */
+public abstract class Rng
+{
+    /**
+     * Create the generator for one stream of a seed
+     * @param name one of "xoroshiro" or "splittable"
+     * @param seed random seed
+     * @param stream index of the stream (e.g., one per thread)
+     */
+    public static Rng create(String name, long seed, int stream)
+    {
+        if (name.equalsIgnoreCase("xoroshiro")) {
+            return new Xoroshiro(seed, stream);
+        }
+        else if (name.equalsIgnoreCase("splittable")) {
+            return new Splittable(seed, stream);
+        }
+        throw new IllegalArgumentException("Unknown random number generator: " + name);
+    }
+
+    public abstract long nextLong();
+
+    /**
+     * Uniform double in [0, 1)
+     */
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Uniform int in [0, n)
+     */
+    public int nextInt(int n)
+    {
+        return (int)(nextDouble() * n);
+    }
+
+    /**
+     * xoroshiro128+ (Blackman and Vigna). Streams are 2^64 steps apart.
+     */
+    static class Xoroshiro extends Rng
+    {
+        private static final long[] JUMP = { 0xdf900294d8f554a5L, 0x170865df4b3201fcL };
+
+        private long s0, s1;
+
+        public Xoroshiro(long seed, int stream)
+        {
+            // initialize the state with splitmix64
+            s0 = mix64(seed + 0x9e3779b97f4a7c15L);
+            s1 = mix64(seed + 2 * 0x9e3779b97f4a7c15L);
+            for (int i = 0; i < stream; i++) {
+                jump();
+            }
+        }
+
+        public long nextLong()
+        {
+            long s0 = this.s0;
+            long s1 = this.s1;
+            long result = s0 + s1;
+
+            s1 ^= s0;
+            this.s0 = Long.rotateLeft(s0, 24) ^ s1 ^ (s1 << 16);
+            this.s1 = Long.rotateLeft(s1, 37);
+
+            return result;
+        }
+
+        private void jump()
+        {
+            long j0 = 0, j1 = 0;
+            for (long jump : JUMP) {
+                for (int b = 0; b < 64; b++) {
+                    if ((jump & (1L << b)) != 0) {
+                        j0 ^= s0;
+                        j1 ^= s1;
+                    }
+                    nextLong();
+                }
+            }
+            s0 = j0;
+            s1 = j1;
+        }
+
+        private static long mix64(long z)
+        {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * java.util.SplittableRandom. Stream i is the i-th split of the seed.
+     */
+    static class Splittable extends Rng
+    {
+        private final SplittableRandom random;
+
+        public Splittable(long seed, int stream)
+        {
+            SplittableRandom random = new SplittableRandom(seed);
+            for (int i = 0; i < stream; i++) {
+                random = random.split();
+            }
+            this.random = random;
+        }
+
+        public long nextLong()
+        {
+            return random.nextLong();
+        }
+
+        public double nextDouble()
+        {
+            return random.nextDouble();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package jgibblda;
+
+/**
+ * Base class for the collapsed Gibbs samplers used during estimation. A
+ * sampler updates the document-topic counts of the model and the given
+ * word-topic counts, which are either the model's own counts or the
+ * thread-local copies of a SamplingWorker.
+ */
+public abstract class Sampler
+{
+    protected final Model model;
+    protected final WordTopicCounts nw; // word-topic counts to sample from and update, size V x K
+    protected final int[] nwsum;  // topic counts to sample from and update, size K
+    protected final Rng rng;
+
+    public Sampler(Model model, WordTopicCounts nw, int[] nwsum, Rng rng)
+    {
+        this.model = model;
+        this.nw = nw;
+        this.nwsum = nwsum;
+        this.rng = rng;
+    }
+
+    /**
+     * Create a sampler by name
+     * @param name one of "dense", "sparse", "alias" or "labeled"
+     */
+    public static Sampler create(String name, Model model, WordTopicCounts nw, int[] nwsum, Rng rng)
+    {
+        return create(name, model, nw, nwsum, rng, 0, model.M);
+    }
+
+    /**
+     * Create a sampler by name for documents [mStart, mEnd) only
+     */
+    public static Sampler create(String name, Model model, WordTopicCounts nw, int[] nwsum, Rng rng,
+            int mStart, int mEnd)
+    {
+        if (name.equalsIgnoreCase("dense")) {
+            return new GibbsSampler(model, nw, nwsum, rng);
+        }
+        else if (name.equalsIgnoreCase("sparse")) {
+            return new SparseLDASampler(model, nw, nwsum, rng);
+        }
+        else if (name.equalsIgnoreCase("alias")) {
+            return new AliasSampler(model, nw, nwsum, rng, mStart, mEnd);
+        }
+        else if (name.equalsIgnoreCase("labeled")) {
+            return new LabeledSampler(model, nw, nwsum, rng);
+        }
+        throw new IllegalArgumentException("Unknown sampler: " + name);
+    }
+
+    /**
+     * Notify the sampler that nw/nwsum have been modified outside of it
+     * (e.g., merged with the counts of other workers), so that any cached
+     * state must be rebuilt
+     */
+    public void countsChanged()
+    {
+    }
+
+    /**
+     * Same as countsChanged(), when only nwsum and the rows of nw of
+     * words[0 .. n) have been modified
+     */
+    public void countsChanged(int[] words, int n)
+    {
+        countsChanged();
+    }
+
+    /**
+     * Sample new topics for every word of document m
+     * @param m document number
+     */
+    public void sampleDocument(int m)
+    {
+        int start = model.data.docStart(m);
+        for (int n = 0; n < model.data.docLength(m); n++) {
+            // sample from p(z_i|z_-i, w)
+            int topic = sampling(m, n);
+            model.z[start + n] = topic;
+        }
+    }
+
+    /**
+     * Do sampling
+     * @param m document number
+     * @param n word number
+     * @return topic id
+     */
+    public abstract int sampling(int m, int n);
+}
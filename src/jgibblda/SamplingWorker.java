@@ -0,0 +1,63 @@
+package jgibblda;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Samples a contiguous range of documents against thread-local copies of
+ * the word-topic counts (approximate distributed LDA). The local counts are
+ * merged back into the model by the Estimator after every iteration.
+ */
+class SamplingWorker implements Callable<Void>
+{
+    // documents sampled by this worker, [mStart, mEnd)
+    protected final int mStart;
+    protected final int mEnd;
+
+    // distinct words of the documents, in increasing order
+    protected final int[] words;
+    protected final int[] changedWords; // buffer for the words changed by a merge
+
+    // thread-local copies of Model.nw and Model.nwsum
+    protected final WordTopicCounts nw;
+    protected final int[] nwsum;
+
+    protected final Sampler sampler;
+
+    public SamplingWorker(Model model, String samplerName, Rng rng, int mStart, int mEnd)
+    {
+        this.mStart = mStart;
+        this.mEnd = mEnd;
+
+        boolean[] seen = new boolean[model.V];
+        int nwords = 0;
+        for (int m = mStart; m < mEnd; m++) {
+            for (int n = 0; n < model.data.docLength(m); n++) {
+                int w = model.data.word(m, n);
+                if (!seen[w]) {
+                    seen[w] = true;
+                    nwords++;
+                }
+            }
+        }
+        words = new int[nwords];
+        changedWords = new int[nwords];
+        for (int w = 0, i = 0; w < model.V; w++) {
+            if (seen[w]) {
+                words[i++] = w;
+            }
+        }
+
+        nw = model.nw.copy();
+        nwsum = model.nwsum.clone();
+
+        sampler = Sampler.create(samplerName, model, nw, nwsum, rng, mStart, mEnd);
+    }
+
+    public Void call()
+    {
+        for (int m = mStart; m < mEnd; m++) {
+            sampler.sampleDocument(m);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * Document-topic counts stored as sorted (topic, count) arrays holding only
+ * the non-zero counts of each document, so that memory scales with the
+ * number of distinct topics per document rather than M x K.
+ */
+public class SparseDocTopicCounts extends DocTopicCounts
+{
+    // entries[m] holds capacity sorted topics followed by capacity counts
+    private final int[][] entries;
+    private final int[] size;
+
+    public SparseDocTopicCounts(int M, int K)
+    {
+        super(M, K);
+        entries = new int[M][];
+        size = new int[M];
+        for (int m = 0; m < M; m++) {
+            entries[m] = new int[4];
+        }
+    }
+
+    public int get(int m, int k)
+    {
+        int[] e = entries[m];
+        int i = Arrays.binarySearch(e, 0, size[m], k);
+        return i < 0 ? 0 : e[e.length / 2 + i];
+    }
+
+    public void add(int m, int k, int delta)
+    {
+        int[] e = entries[m];
+        int n = size[m];
+        int i = Arrays.binarySearch(e, 0, n, k);
+
+        if (i >= 0) {
+            int capacity = e.length / 2;
+            e[capacity + i] += delta;
+            if (e[capacity + i] == 0) {
+                // remove the entry
+                System.arraycopy(e, i + 1, e, i, n - i - 1);
+                System.arraycopy(e, capacity + i + 1, e, capacity + i, n - i - 1);
+                size[m]--;
+            }
+            return;
+        }
+        if (delta == 0) {
+            return;
+        }
+
+        i = -i - 1;
+        if (n == e.length / 2) {
+            e = grow(m);
+        }
+        int capacity = e.length / 2;
+        System.arraycopy(e, i, e, i + 1, n - i);
+        System.arraycopy(e, capacity + i, e, capacity + i + 1, n - i);
+        e[i] = k;
+        e[capacity + i] = delta;
+        size[m]++;
+    }
+
+    /**
+     * Double the capacity of document m (up to K entries)
+     */
+    private int[] grow(int m)
+    {
+        int[] old = entries[m];
+        int n = size[m];
+        int capacity = Math.min(K, 2 * (old.length / 2));
+        int[] e = new int[2 * capacity];
+        System.arraycopy(old, 0, e, 0, n);
+        System.arraycopy(old, old.length / 2, e, capacity, n);
+        entries[m] = e;
+        return e;
+    }
+
+    public int nonZeroTopics(int m, int[] topics, int[] counts)
+    {
+        int[] e = entries[m];
+        int n = size[m];
+        System.arraycopy(e, 0, topics, 0, n);
+        System.arraycopy(e, e.length / 2, counts, 0, n);
+        return n;
+    }
+
+    public long sizeInBytes()
+    {
+        long bytes = 2 * (16 + 4L * M);
+        for (int m = 0; m < M; m++) {
+            bytes += 16 + 4L * entries[m].length;
+        }
+        return bytes;
+    }
+}
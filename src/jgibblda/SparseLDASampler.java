@@ -0,0 +1,333 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * SparseLDA sampler (Yao, Mimno and McCallum, 2009). The full conditional
+ *
+ *   (nd[m][k] + alpha) * (nw[w][k] + beta) / (nwsum[k] + Vbeta)
+ *
+ * is split into a smoothing-only bucket (alpha * beta / (nwsum[k] + Vbeta)),
+ * a document-topic bucket (nd[m][k] * beta / (nwsum[k] + Vbeta)) and a
+ * topic-word bucket ((nd[m][k] + alpha) * nw[w][k] / (nwsum[k] + Vbeta)).
+ * The bucket totals are cached and the last two buckets are only evaluated
+ * over the non-zero topics of the document and of the word, so that each
+ * token costs roughly the number of non-zero topics instead of K. The
+ * smoothing mass and the coefficients alpha / (nwsum[k] + Vbeta) are kept
+ * across documents; starting a document only restores the coefficients of
+ * the topics of the previous one and sets those of its own topics.
+ *
+ * Labeled documents are sampled by the dense label loop of GibbsSampler,
+ * which is already restricted to the document labels.
+ */
+public class SparseLDASampler extends GibbsSampler
+{
+    private final double Vbeta;
+    private final double alphaBeta;
+
+    // non-zero topics of each word, sorted by decreasing count in nw
+    private final int[][] wordTopics;
+    private final int[] wordTopicsSize;
+    private final int[] rowTopics;  // temp buffers for rebuilding the lists
+    private final int[] rowCounts;
+    private final long[] entries;
+
+    // non-zero topics of the current document
+    private final int[] docTopics;
+    private final int[] docTopicIndex; // position of each topic in docTopics, or -1
+    private final int[] docCounts;     // temp buffer for the counts of docTopics
+    private int docTopicsSize = 0;
+    private int docM = -1; // current document, or -1 if the cached state is stale
+
+    // cached bucket totals and coefficients for the current document
+    private double smoothingMass;     // sum_k alpha * beta / (nwsum[k] + Vbeta)
+    private double docMass;           // sum_k nd[m][k] * beta / (nwsum[k] + Vbeta)
+    private final double[] coef;      // (nd[m][k] + alpha) / (nwsum[k] + Vbeta)
+    private boolean cached = false;   // whether smoothingMass and coef match nwsum
+
+    public SparseLDASampler(Model model, WordTopicCounts nw, int[] nwsum, Rng rng)
+    {
+        super(model, nw, nwsum, rng);
+
+        Vbeta = model.V * model.beta;
+        alphaBeta = model.alpha * model.beta;
+
+        wordTopics = new int[model.V][];
+        wordTopicsSize = new int[model.V];
+        rowTopics = new int[model.K];
+        rowCounts = new int[model.K];
+        entries = new long[model.K];
+        docTopics = new int[model.K];
+        docTopicIndex = new int[model.K];
+        docCounts = new int[model.K];
+        Arrays.fill(docTopicIndex, -1);
+        coef = new double[model.K];
+
+        countsChanged();
+    }
+
+    /**
+     * Rebuild the sorted non-zero topic lists of every word from nw
+     */
+    public void countsChanged()
+    {
+        for (int w = 0; w < model.V; w++) {
+            rebuildWordTopics(w);
+        }
+
+        docM = -1;
+        cached = false;
+    }
+
+    /**
+     * Rebuild the topic lists of words[0 .. n) only
+     */
+    public void countsChanged(int[] words, int n)
+    {
+        for (int i = 0; i < n; i++) {
+            rebuildWordTopics(words[i]);
+        }
+
+        docM = -1;
+        cached = false;
+    }
+
+    /**
+     * Rebuild the sorted non-zero topic list of word w from nw
+     */
+    private void rebuildWordTopics(int w)
+    {
+        int K = model.K;
+        int size = nw.nonZeroTopics(w, rowTopics, rowCounts);
+        int freq = 0;
+        for (int i = 0; i < size; i++) {
+            // sort by count, break ties by topic
+            entries[i] = ((long)rowCounts[i] << 32) | (K - 1 - rowTopics[i]);
+            freq += rowCounts[i];
+        }
+        Arrays.sort(entries, 0, size);
+
+        // a word can't have more non-zero topics than occurrences
+        if (wordTopics[w] == null) {
+            wordTopics[w] = new int[Math.min(K, freq)];
+        }
+        int[] topics = wordTopics[w];
+        for (int i = 0; i < size; i++) {
+            topics[i] = K - 1 - (int)(entries[size - 1 - i] & 0xffffffffL);
+        }
+        wordTopicsSize[w] = size;
+    }
+
+    public void sampleDocument(int m)
+    {
+        if (model.data.labels(m) == null) {
+            beginDocument(m);
+        }
+        super.sampleDocument(m);
+    }
+
+    public int sampling(int m, int n)
+    {
+        int oldTopic = model.z[model.data.docStart(m) + n];
+        int w = model.data.word(m, n);
+
+        // labeled documents: dense sampling over the labels
+        if (model.data.labels(m) != null) {
+            docM = -1;
+            cached = false;
+            int topic = super.sampling(m, n);
+            if (topic != oldTopic) {
+                decrementWordTopic(w, oldTopic);
+                incrementWordTopic(w, topic);
+            }
+            return topic;
+        }
+
+        if (m != docM) {
+            beginDocument(m);
+        }
+        // remove z_i from the count variables and the cached buckets
+        updateTopic(m, oldTopic, -1);
+        nw.decrement(w, oldTopic);
+        model.ndsum[m] -= 1;
+        decrementWordTopic(w, oldTopic);
+
+        int topic = sampleBuckets(m, w);
+
+        // add newly estimated z_i to count variables and the cached buckets
+        updateTopic(m, topic, +1);
+        nw.increment(w, topic);
+        model.ndsum[m] += 1;
+        incrementWordTopic(w, topic);
+
+        return topic;
+    }
+
+    /**
+     * Set up the cached bucket totals and coefficients for document m
+     */
+    private void beginDocument(int m)
+    {
+        for (int i = 0; i < docTopicsSize; i++) {
+            int k = docTopics[i];
+            docTopicIndex[k] = -1;
+            coef[k] = model.alpha / (nwsum[k] + Vbeta);
+        }
+
+        if (!cached) {
+            smoothingMass = 0;
+            for (int k = 0; k < model.K; k++) {
+                double denom = nwsum[k] + Vbeta;
+                smoothingMass += alphaBeta / denom;
+                coef[k] = model.alpha / denom;
+            }
+            cached = true;
+        }
+
+        docMass = 0;
+        docTopicsSize = model.nd.nonZeroTopics(m, docTopics, docCounts);
+        for (int i = 0; i < docTopicsSize; i++) {
+            int k = docTopics[i];
+            double denom = nwsum[k] + Vbeta;
+            docTopicIndex[k] = i;
+            docMass += docCounts[i] * model.beta / denom;
+            coef[k] = (docCounts[i] + model.alpha) / denom;
+        }
+
+        docM = m;
+    }
+
+    /**
+     * Change nd[m][k] and nwsum[k] by delta, keeping the cached buckets up to date
+     */
+    private void updateTopic(int m, int k, int delta)
+    {
+        int nd_mk = model.nd.get(m, k);
+        double denom = nwsum[k] + Vbeta;
+        smoothingMass -= alphaBeta / denom;
+        docMass -= nd_mk * model.beta / denom;
+
+        nd_mk += delta;
+        model.nd.add(m, k, delta);
+        nwsum[k] += delta;
+
+        denom = nwsum[k] + Vbeta;
+        smoothingMass += alphaBeta / denom;
+        docMass += nd_mk * model.beta / denom;
+        coef[k] = (nd_mk + model.alpha) / denom;
+
+        if (nd_mk == 0) {
+            // remove k from the document topics
+            int i = docTopicIndex[k];
+            int last = docTopics[--docTopicsSize];
+            docTopics[i] = last;
+            docTopicIndex[last] = i;
+            docTopicIndex[k] = -1;
+        } else if (docTopicIndex[k] < 0) {
+            docTopicIndex[k] = docTopicsSize;
+            docTopics[docTopicsSize++] = k;
+        }
+    }
+
+    /**
+     * Draw a topic for word w from the three buckets
+     */
+    private int sampleBuckets(int m, int w)
+    {
+        int[] topics = wordTopics[w];
+        int size = wordTopicsSize[w];
+
+        // topic-word bucket
+        double topicWordMass = 0;
+        for (int i = 0; i < size; i++) {
+            int k = topics[i];
+            p[i] = coef[k] * nw.get(w, k);
+            topicWordMass += p[i];
+        }
+
+        double u = rng.nextDouble() * (smoothingMass + docMass + topicWordMass);
+
+        if (u < topicWordMass) {
+            for (int i = 0; i < size; i++) {
+                u -= p[i];
+                if (u <= 0)
+                    return topics[i];
+            }
+            return topics[size - 1];
+        }
+        u -= topicWordMass;
+
+        if (u < docMass && docTopicsSize > 0) {
+            for (int i = 0; i < docTopicsSize; i++) {
+                int k = docTopics[i];
+                u -= model.nd.get(m, k) * model.beta / (nwsum[k] + Vbeta);
+                if (u <= 0)
+                    return k;
+            }
+            return docTopics[docTopicsSize - 1];
+        }
+        u -= docMass;
+
+        // smoothing-only bucket
+        for (int k = 0; k < model.K; k++) {
+            u -= alphaBeta / (nwsum[k] + Vbeta);
+            if (u <= 0)
+                return k;
+        }
+        return model.K - 1;
+    }
+
+    /**
+     * Update the topic list of word w after nw[w][topic] was incremented
+     */
+    private void incrementWordTopic(int w, int topic)
+    {
+        int[] topics = wordTopics[w];
+        int count = nw.get(w, topic);
+
+        int i = indexOf(topics, wordTopicsSize[w], topic);
+        if (i < 0) {
+            i = wordTopicsSize[w]++;
+        }
+
+        // move towards the front while the previous topic has a smaller count
+        while (i > 0 && nw.get(w, topics[i - 1]) < count) {
+            topics[i] = topics[i - 1];
+            i--;
+        }
+        topics[i] = topic;
+    }
+
+    /**
+     * Update the topic list of word w after nw[w][topic] was decremented
+     */
+    private void decrementWordTopic(int w, int topic)
+    {
+        int[] topics = wordTopics[w];
+        int count = nw.get(w, topic);
+        int size = wordTopicsSize[w];
+
+        int i = indexOf(topics, size, topic);
+        if (count == 0) {
+            System.arraycopy(topics, i + 1, topics, i, size - i - 1);
+            wordTopicsSize[w]--;
+            return;
+        }
+
+        // move towards the back while the next topic has a larger count
+        while (i < size - 1 && nw.get(w, topics[i + 1]) > count) {
+            topics[i] = topics[i + 1];
+            i++;
+        }
+        topics[i] = topic;
+    }
+
+    private static int indexOf(int[] topics, int size, int topic)
+    {
+        for (int i = 0; i < size; i++) {
+            if (topics[i] == topic)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,155 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * Word-topic counts stored as one open-addressing hash table per word,
+ * mapping topic to count, so that memory scales with the number of
+ * non-zero counts rather than V x K. Useful for labeled corpora with many
+ * labels, where every word only co-occurs with a few of them. Entries are
+ * kept when their count drops to zero.
+ */
+public class SparseWordTopicCounts extends WordTopicCounts
+{
+    private static final int EMPTY = -1;
+
+    // table[w] holds capacity topics followed by capacity counts
+    private final int[][] table;
+    private final int[] size;
+
+    public SparseWordTopicCounts(int V, int K)
+    {
+        super(V, K);
+        table = new int[V][];
+        size = new int[V];
+        for (int w = 0; w < V; w++) {
+            table[w] = newTable(4);
+        }
+    }
+
+    private static int[] newTable(int capacity)
+    {
+        int[] t = new int[2 * capacity];
+        for (int i = 0; i < capacity; i++) {
+            t[i] = EMPTY;
+        }
+        return t;
+    }
+
+    /**
+     * Slot of topic k in t, or of the empty slot where it would go
+     */
+    private static int slot(int[] t, int k)
+    {
+        int mask = t.length / 2 - 1;
+        int h = k * 0x9e3779b9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (t[i] != EMPTY && t[i] != k) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public int get(int w, int k)
+    {
+        int[] t = table[w];
+        int i = slot(t, k);
+        return t[i] == EMPTY ? 0 : t[t.length / 2 + i];
+    }
+
+    public void set(int w, int k, int count)
+    {
+        int[] t = table[w];
+        int i = slot(t, k);
+        if (t[i] == EMPTY) {
+            if (count == 0) {
+                return;
+            }
+            if (2 * (size[w] + 1) > t.length / 2) {
+                grow(w);
+                t = table[w];
+                i = slot(t, k);
+            }
+            t[i] = k;
+            size[w]++;
+        }
+        t[t.length / 2 + i] = count;
+    }
+
+    public void add(int w, int k, int delta)
+    {
+        int[] t = table[w];
+        int i = slot(t, k);
+        if (t[i] == EMPTY) {
+            set(w, k, delta);
+        } else {
+            t[t.length / 2 + i] += delta;
+        }
+    }
+
+    /**
+     * Double the capacity of the table of word w
+     */
+    private void grow(int w)
+    {
+        int[] old = table[w];
+        int capacity = old.length / 2;
+        int[] t = newTable(2 * capacity);
+        for (int i = 0; i < capacity; i++) {
+            if (old[i] != EMPTY) {
+                int j = slot(t, old[i]);
+                t[j] = old[i];
+                t[t.length / 2 + j] = old[capacity + i];
+            }
+        }
+        table[w] = t;
+    }
+
+    public void getRow(int w, int[] row)
+    {
+        Arrays.fill(row, 0, K, 0);
+        int[] t = table[w];
+        int capacity = t.length / 2;
+        for (int i = 0; i < capacity; i++) {
+            if (t[i] != EMPTY) {
+                row[t[i]] = t[capacity + i];
+            }
+        }
+    }
+
+    public int nonZeroTopics(int w, int[] topics, int[] counts)
+    {
+        int[] t = table[w];
+        int capacity = t.length / 2;
+        int size = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (t[i] != EMPTY && t[capacity + i] != 0) {
+                topics[size++] = t[i];
+            }
+        }
+        Arrays.sort(topics, 0, size);
+        for (int i = 0; i < size; i++) {
+            counts[i] = get(w, topics[i]);
+        }
+        return size;
+    }
+
+    public WordTopicCounts copy()
+    {
+        SparseWordTopicCounts copy = new SparseWordTopicCounts(V, K);
+        for (int w = 0; w < V; w++) {
+            copy.table[w] = table[w].clone();
+            copy.size[w] = size[w];
+        }
+        return copy;
+    }
+
+    public long sizeInBytes()
+    {
+        long bytes = 2 * (16 + 4L * V);
+        for (int w = 0; w < V; w++) {
+            bytes += 16 + 4L * table[w].length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,72 @@
+package jgibblda;
+
+/**
+ * Log-gamma and digamma functions, and a table of log-gamma values for
+ * the counts of the samplers
+ */
+class SpecialFunctions
+{
+    private static final double[] LANCZOS = {
+        0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+        771.32342877765313, -176.61502916214059, 12.507343278686905,
+        -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7
+    };
+    private static final double HALF_LOG_2PI = 0.5 * Math.log(2 * Math.PI);
+
+    /**
+     * log Gamma(x) for x > 0 (Lanczos approximation, g = 7)
+     */
+    static double logGamma(double x)
+    {
+        if (x < 0.5) {
+            // reflection: Gamma(x) Gamma(1 - x) = pi / sin(pi x)
+            return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1.0 - x);
+        }
+        x -= 1.0;
+        double a = LANCZOS[0];
+        double t = x + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++) {
+            a += LANCZOS[i] / (x + i);
+        }
+        return HALF_LOG_2PI + (x + 0.5) * Math.log(t) - t + Math.log(a);
+    }
+
+    /**
+     * Digamma function, by recurrence up to 6 and the asymptotic series
+     */
+    static double digamma(double x)
+    {
+        double result = 0;
+        while (x < 6.0) {
+            result -= 1.0 / x;
+            x += 1.0;
+        }
+        double f = 1.0 / (x * x);
+        return result + Math.log(x) - 0.5 / x
+            - f * (1.0 / 12 - f * (1.0 / 120 - f * (1.0 / 252 - f * (1.0 / 240 - f / 132))));
+    }
+
+    /**
+     * log Gamma(n + offset) for integer counts n, precomputed for the
+     * counts below size
+     */
+    static class LogGammaTable
+    {
+        private final double offset;
+        private final double[] table;
+
+        LogGammaTable(double offset, int size)
+        {
+            this.offset = offset;
+            table = new double[size];
+            for (int n = 0; n < size; n++) {
+                table[n] = logGamma(n + offset);
+            }
+        }
+
+        double get(int n)
+        {
+            return n < table.length ? table[n] : logGamma(n + offset);
+        }
+    }
+}
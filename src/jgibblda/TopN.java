@@ -0,0 +1,110 @@
+package jgibblda;
+
+/**
+ * Selection of the indices of the n largest values of an array with a
+ * bounded min-heap of int indices, in O(length log n) time and without
+ * boxing. Indices are returned by decreasing value, ties by increasing
+ * index, i.e., in the order of a stable sort by decreasing value.
+ */
+public class TopN
+{
+    /**
+     * Indices of the n largest values among values[0..length)
+     */
+    public static int[] select(double[] values, int length, int n)
+    {
+        n = Math.max(0, Math.min(n, length));
+        int[] heap = new int[n];
+        if (n == 0) {
+            return heap;
+        }
+
+        // heap[0] is the worst of the n best indices seen so far
+        for (int i = 0; i < n; i++) {
+            heap[i] = i;
+            siftUp(heap, i, values);
+        }
+        for (int i = n; i < length; i++) {
+            // later indices only win ties against nothing, so they must be strictly larger
+            if (values[i] > values[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, n, values);
+            }
+        }
+
+        // pop the worst to the end
+        for (int size = n - 1; size > 0; size--) {
+            int worst = heap[0];
+            heap[0] = heap[size];
+            heap[size] = worst;
+            siftDown(heap, size, values);
+        }
+        return heap;
+    }
+
+    public static int[] select(double[] values, int n)
+    {
+        return select(values, values.length, n);
+    }
+
+    /**
+     * Top n indices of every row of matrix, with the rows split across
+     * nthreads threads
+     */
+    public static int[][] selectRows(final double[][] matrix, final int n, int nthreads)
+    {
+        final int[][] top = new int[matrix.length][];
+        Parallel.forRanges(nthreads, matrix.length, new Parallel.Range() {
+            public void run(int t, int start, int end)
+            {
+                for (int r = start; r < end; r++) {
+                    top[r] = select(matrix[r], n);
+                }
+            }
+        });
+        return top;
+    }
+
+    /**
+     * a is worse than b: smaller value, or same value and larger index
+     */
+    private static boolean worse(int a, int b, double[] values)
+    {
+        return values[a] < values[b] || (values[a] == values[b] && a > b);
+    }
+
+    private static void siftUp(int[] heap, int i, double[] values)
+    {
+        int x = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(x, heap[parent], values)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = x;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] values)
+    {
+        int x = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(heap[child + 1], heap[child], values)) {
+                child++;
+            }
+            if (!worse(heap[child], x, values)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = x;
+    }
+}
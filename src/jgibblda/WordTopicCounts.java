@@ -0,0 +1,135 @@
+package jgibblda;
+
+/**
+ * Word-topic counts nw[w][k] (number of instances of word w assigned to
+ * topic k), size V x K. Subclasses differ in memory layout:
+ *
+ *   jagged - one int[K] row per word (the classic int[V][K])
+ *   flat   - all rows in one int[] with an optional row alignment
+ *   packed - all rows in one char[] (16-bit counts); rows of words that
+ *            occur more than 65535 times are kept as int[] rows
+ *   sparse - one small topic-to-count hash table per word
+ */
+public abstract class WordTopicCounts
+{
+    protected final int V;
+    protected final int K;
+
+    protected WordTopicCounts(int V, int K)
+    {
+        this.V = V;
+        this.K = K;
+    }
+
+    /**
+     * Create word-topic counts with the given layout
+     * @param layout one of "jagged", "flat", "packed" or "sparse"
+     * @param align row alignment in bytes for the flat layouts (0 for none)
+     * @param wordFreq number of occurrences of every word (upper bound of its counts)
+     */
+    public static WordTopicCounts create(String layout, int V, int K, int align, int[] wordFreq)
+    {
+        if (layout.equalsIgnoreCase("jagged")) {
+            return new JaggedWordTopicCounts(V, K);
+        }
+        else if (layout.equalsIgnoreCase("flat")) {
+            return new FlatWordTopicCounts(V, K, align);
+        }
+        else if (layout.equalsIgnoreCase("packed")) {
+            return new PackedWordTopicCounts(V, K, align, wordFreq);
+        }
+        else if (layout.equalsIgnoreCase("sparse")) {
+            return new SparseWordTopicCounts(V, K);
+        }
+        throw new IllegalArgumentException("Unknown count layout: " + layout);
+    }
+
+    /**
+     * Number of elements per row, padded so that every row starts on a
+     * multiple of align bytes
+     */
+    protected static int stride(int K, int elementSize, int align)
+    {
+        if (align <= elementSize) {
+            return K;
+        }
+        int perAlign = Math.max(1, align / elementSize);
+        return (K + perAlign - 1) / perAlign * perAlign;
+    }
+
+    /**
+     * Number of elements of a flat array with V rows of the given stride
+     */
+    protected static int flatSize(int V, int stride)
+    {
+        long size = (long)V * stride;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many word-topic counts for a flat layout: " + size);
+        }
+        return (int)size;
+    }
+
+    public int getV()
+    {
+        return V;
+    }
+
+    public int getK()
+    {
+        return K;
+    }
+
+    public abstract int get(int w, int k);
+
+    public abstract void set(int w, int k, int count);
+
+    public abstract void add(int w, int k, int delta);
+
+    public void increment(int w, int k)
+    {
+        add(w, k, 1);
+    }
+
+    public void decrement(int w, int k)
+    {
+        add(w, k, -1);
+    }
+
+    /**
+     * Copy the counts of word w into row (of size at least K)
+     */
+    public void getRow(int w, int[] row)
+    {
+        for (int k = 0; k < K; k++) {
+            row[k] = get(w, k);
+        }
+    }
+
+    /**
+     * Copy the non-zero counts of word w into topics[] and counts[] (both
+     * of size at least K), by increasing topic
+     * @return number of non-zero counts
+     */
+    public int nonZeroTopics(int w, int[] topics, int[] counts)
+    {
+        int size = 0;
+        for (int k = 0; k < K; k++) {
+            int count = get(w, k);
+            if (count != 0) {
+                topics[size] = k;
+                counts[size++] = count;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deep copy with the same layout
+     */
+    public abstract WordTopicCounts copy();
+
+    /**
+     * Approximate heap size of the counts in bytes
+     */
+    public abstract long sizeInBytes();
+}
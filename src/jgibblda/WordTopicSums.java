@@ -0,0 +1,88 @@
+package jgibblda;
+
+import java.util.Arrays;
+
+/**
+ * Word-topic counts summed over the samples (see Model.updatePhi()),
+ * stored per word as the sorted topics that were ever non-zero and their
+ * sums, so that memory scales with the non-zero counts like nw rather than
+ * V x K. Rows of different words can be added to by different threads.
+ */
+public class WordTopicSums
+{
+    private static final int[] NO_TOPICS = new int[0];
+    private static final double[] NO_SUMS = new double[0];
+
+    protected final int V;
+    protected final int K;
+
+    private final int[][] topics; // topics[w]: sorted topics of word w
+    private final double[][] sums; // sums[w][i]: sum of topic topics[w][i]
+
+    public WordTopicSums(int V, int K)
+    {
+        this.V = V;
+        this.K = K;
+        topics = new int[V][];
+        sums = new double[V][];
+        Arrays.fill(topics, NO_TOPICS);
+        Arrays.fill(sums, NO_SUMS);
+    }
+
+    public double get(int w, int k)
+    {
+        int i = Arrays.binarySearch(topics[w], k);
+        return i < 0 ? 0.0 : sums[w][i];
+    }
+
+    /**
+     * Add values[i] to topic addTopics[i] of word w, for i in [0, n)
+     * @param addTopics topics in increasing order
+     */
+    public void add(int w, int[] addTopics, double[] values, int n)
+    {
+        int[] t = topics[w];
+        double[] s = sums[w];
+
+        // count the topics that aren't there yet
+        int missing = 0;
+        for (int i = 0, j = 0; i < n; i++) {
+            while (j < t.length && t[j] < addTopics[i]) {
+                j++;
+            }
+            if (j == t.length || t[j] != addTopics[i]) {
+                missing++;
+            }
+        }
+
+        if (missing == 0) {
+            for (int i = 0, j = 0; i < n; i++) {
+                while (t[j] < addTopics[i]) {
+                    j++;
+                }
+                s[j] += values[i];
+            }
+            return;
+        }
+
+        // merge into new arrays
+        int size = t.length + missing;
+        int[] mt = new int[size];
+        double[] ms = new double[size];
+        int i = 0, j = 0;
+        for (int o = 0; o < size; o++) {
+            if (j < t.length && (i == n || t[j] < addTopics[i])) {
+                mt[o] = t[j];
+                ms[o] = s[j++];
+            } else if (j < t.length && t[j] == addTopics[i]) {
+                mt[o] = t[j];
+                ms[o] = s[j++] + values[i++];
+            } else {
+                mt[o] = addTopics[i];
+                ms[o] = values[i++];
+            }
+        }
+        topics[w] = mt;
+        sums[w] = ms;
+    }
+}